@@ -0,0 +1,113 @@
+package com.fishqq.adcp.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bytes allocated per borrow + close while the pool has idle connections, which must stay at ~0.
+ * main runs it with the gc profiler and fails when gc.alloc.rate.norm is above MAX_BYTES_PER_OP:
+ * <p>
+ * mvn -Pbenchmarks -DskipTests package exec:exec -Djmh.main=com.fishqq.adcp.benchmark.AllocationBenchmark
+ * <p>
+ * or just look at the numbers with -Djmh.args="AllocationBenchmark -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AllocationBenchmark {
+    // leaves room for allocations jmh itself attributes to the benchmark
+    private static final double MAX_BYTES_PER_OP = 1.0;
+
+    @Param({BenchmarkPools.ADCP})
+    public String pool;
+
+    private DataSource dataSource;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        // more connections than threads, nobody ever waits
+        dataSource = BenchmarkPools.create(pool, 16, 0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkPools.close(dataSource);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void borrow_1(Blackhole blackhole) throws SQLException {
+        borrowAndClose(blackhole);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void borrow_4(Blackhole blackhole) throws SQLException {
+        borrowAndClose(blackhole);
+    }
+
+    private void borrowAndClose(Blackhole blackhole) throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            blackhole.consume(connection);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(AllocationBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        Collection<RunResult> results = new Runner(options).run();
+        boolean failed = false;
+
+        for (RunResult result : results) {
+            Result<?> allocated = result.getSecondaryResults().get("gc.alloc.rate.norm");
+            String benchmark = result.getParams().getBenchmark();
+
+            if (allocated == null) {
+                System.err.println(benchmark + ": no gc.alloc.rate.norm result");
+                failed = true;
+            } else if (allocated.getScore() > MAX_BYTES_PER_OP) {
+                System.err.printf("%s: %.2f B/op allocated, expected at most %.2f%n",
+                        benchmark, allocated.getScore(), MAX_BYTES_PER_OP);
+                failed = true;
+            }
+        }
+
+        if (failed) {
+            System.exit(1);
+        }
+    }
+}
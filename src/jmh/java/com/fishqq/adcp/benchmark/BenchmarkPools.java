@@ -0,0 +1,69 @@
+package com.fishqq.adcp.benchmark;
+
+import com.fishqq.adcp.AdcpDataSource;
+import com.fishqq.adcp.AdcpPoolConfig;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URL;
+
+final class BenchmarkPools {
+    static final String ADCP = "adcp";
+    static final String HIKARI = "hikari";
+
+    private BenchmarkPools() {
+    }
+
+    static AdcpPoolConfig adcpConfig(int poolSize) {
+        AdcpPoolConfig config = new AdcpPoolConfig();
+        config.setPoolName("adcp-benchmark");
+        config.setMaxPoolSize(poolSize);
+        config.setMinIdle(poolSize);
+        config.setBorrowTimeoutMs(60 * 1000);
+        return config;
+    }
+
+    static DataSource create(String pool, int poolSize, long connectMicros) {
+        StubDataSource stub = new StubDataSource(connectMicros);
+
+        switch (pool) {
+            case ADCP:
+                return new AdcpDataSource(adcpConfig(poolSize), stub);
+            case HIKARI:
+                HikariConfig config = new HikariConfig();
+                config.setPoolName("hikari-benchmark");
+                config.setDataSource(stub);
+                config.setMaximumPoolSize(poolSize);
+                config.setMinimumIdle(poolSize);
+                config.setConnectionTimeout(60 * 1000);
+                return new HikariDataSource(config);
+            default:
+                throw new IllegalArgumentException("unknown pool: " + pool);
+        }
+    }
+
+    // a benchmark of a jdk specific class must load it from META-INF/versions of the packaged jar,
+    // target/classes only has the java 8 variant
+    static void requireVersionedClass(String simpleName, int version) {
+        String spec = System.getProperty("java.specification.version");
+        int feature = Integer.parseInt(spec.startsWith("1.") ? spec.substring(2) : spec);
+        if (feature < version) {
+            throw new IllegalStateException(simpleName + " needs jdk " + version + "+, running on " + spec);
+        }
+
+        URL location = AdcpDataSource.class.getResource(simpleName + ".class");
+        if (location == null || !location.toString().contains("META-INF/versions/" + version + "/")) {
+            throw new IllegalStateException(simpleName + " is loaded from " + location
+                    + ", not from META-INF/versions/" + version + " of the packaged multi-release jar");
+        }
+    }
+
+    static void close(DataSource dataSource) throws IOException {
+        if (dataSource instanceof Closeable) {
+            ((Closeable) dataSource).close();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.fishqq.adcp.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Borrow + close against the stub driver, adcp versus hikari. The pool is oversized when the
+ * thread count is below poolSize and exhausted when it is above, e.g. 128 threads on 8 or 32.
+ * <p>
+ * mvn -Pbenchmarks test-compile exec:exec -Djmh.args=BorrowBenchmark, results in target/jmh-result.json
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BorrowBenchmark {
+    @Param({BenchmarkPools.ADCP, BenchmarkPools.HIKARI})
+    public String pool;
+
+    @Param({"8", "32"})
+    public int poolSize;
+
+    // cpu work done while holding the connection
+    @Param({"0", "100"})
+    public long holdTokens;
+
+    @Param({"0"})
+    public long connectMicros;
+
+    private DataSource dataSource;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        dataSource = BenchmarkPools.create(pool, poolSize, connectMicros);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkPools.close(dataSource);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void borrow_1(Blackhole blackhole) throws SQLException {
+        borrowAndClose(blackhole);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void borrow_8(Blackhole blackhole) throws SQLException {
+        borrowAndClose(blackhole);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public void borrow_32(Blackhole blackhole) throws SQLException {
+        borrowAndClose(blackhole);
+    }
+
+    @Benchmark
+    @Threads(128)
+    public void borrow_128(Blackhole blackhole) throws SQLException {
+        borrowAndClose(blackhole);
+    }
+
+    private void borrowAndClose(Blackhole blackhole) throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            blackhole.consume(connection);
+            if (holdTokens > 0) {
+                Blackhole.consumeCPU(holdTokens);
+            }
+        }
+    }
+}
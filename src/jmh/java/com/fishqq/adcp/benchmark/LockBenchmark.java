@@ -0,0 +1,103 @@
+package com.fishqq.adcp.benchmark;
+
+import com.fishqq.adcp.SpinLock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LockBenchmark {
+    private final SpinLock spinLock = new SpinLock();
+    private final ReentrantLock reentrantLock = new ReentrantLock();
+
+    private long spinCounter;
+    private long reentrantCounter;
+
+    // the spin-then-park lock is measured with Thread.onSpinWait(), not the java 8 no-op
+    @Setup
+    public void setup() {
+        BenchmarkPools.requireVersionedClass("SpinWait", 9);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long spinLock_1() {
+        return spin();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public long spinLock_8() {
+        return spin();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public long spinLock_64() {
+        return spin();
+    }
+
+    @Benchmark
+    @Threads(256)
+    public long spinLock_256() {
+        return spin();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long reentrantLock_1() {
+        return reentrant();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public long reentrantLock_8() {
+        return reentrant();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public long reentrantLock_64() {
+        return reentrant();
+    }
+
+    @Benchmark
+    @Threads(256)
+    public long reentrantLock_256() {
+        return reentrant();
+    }
+
+    private long spin() {
+        spinLock.lock();
+        try {
+            return ++spinCounter;
+        } finally {
+            spinLock.unlock();
+        }
+    }
+
+    private long reentrant() {
+        reentrantLock.lock();
+        try {
+            return ++reentrantCounter;
+        } finally {
+            reentrantLock.unlock();
+        }
+    }
+}
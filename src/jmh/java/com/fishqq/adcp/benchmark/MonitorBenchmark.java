@@ -0,0 +1,61 @@
+package com.fishqq.adcp.benchmark;
+
+import com.fishqq.adcp.AdcpMemoryMonitor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of recording one event into the memory monitor, which should stay at a few ns uncontended.
+ * <p>
+ * mvn -Pbenchmarks -DskipTests package exec:exec -Djmh.args=MonitorBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MonitorBenchmark {
+    private final AdcpMemoryMonitor monitor = new AdcpMemoryMonitor();
+
+    @Benchmark
+    @Threads(1)
+    public void recordHistogram_1() {
+        monitor.recordConnectionAcquiredNanos(ThreadLocalRandom.current().nextInt(1_000_000));
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void recordHistogram_8() {
+        monitor.recordConnectionAcquiredNanos(ThreadLocalRandom.current().nextInt(1_000_000));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void recordCounter_1() {
+        monitor.recordStatementCacheHit();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void recordCounter_8() {
+        monitor.recordStatementCacheHit();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public AdcpMemoryMonitor.Snapshot snapshot() {
+        return monitor.snapshot();
+    }
+}
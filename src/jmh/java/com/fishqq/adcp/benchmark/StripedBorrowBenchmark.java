@@ -0,0 +1,101 @@
+package com.fishqq.adcp.benchmark;
+
+import com.fishqq.adcp.AdcpDataSource;
+import com.fishqq.adcp.AdcpPoolConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Borrow + close scaling from 1 to 128 threads, one slice (every thread scans from the first node,
+ * the single pool baseline) versus striped. Thread affinity is off, otherwise its hint hides the scan.
+ * <p>
+ * mvn -Pbenchmarks test-compile exec:exec -Djmh.args=StripedBorrowBenchmark, results in target/jmh-result.json
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StripedBorrowBenchmark {
+    @Param({"1", "8", "32"})
+    public int stripes;
+
+    @Param({"32", "128"})
+    public int poolSize;
+
+    // cpu work done while holding the connection
+    @Param({"0", "100"})
+    public long holdTokens;
+
+    private AdcpDataSource dataSource;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        AdcpPoolConfig config = BenchmarkPools.adcpConfig(poolSize);
+        config.setStripes(stripes);
+        config.setThreadAffinityEnabled(false);
+        dataSource = new AdcpDataSource(config, new StubDataSource(0));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dataSource.close();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void borrow_1(Blackhole blackhole) throws SQLException {
+        borrowAndClose(blackhole);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void borrow_8(Blackhole blackhole) throws SQLException {
+        borrowAndClose(blackhole);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public void borrow_32(Blackhole blackhole) throws SQLException {
+        borrowAndClose(blackhole);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public void borrow_64(Blackhole blackhole) throws SQLException {
+        borrowAndClose(blackhole);
+    }
+
+    @Benchmark
+    @Threads(128)
+    public void borrow_128(Blackhole blackhole) throws SQLException {
+        borrowAndClose(blackhole);
+    }
+
+    private void borrowAndClose(Blackhole blackhole) throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            blackhole.consume(connection);
+            if (holdTokens > 0) {
+                Blackhole.consumeCPU(holdTokens);
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.fishqq.adcp.benchmark;
+
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * In-process driver for "jdbc:stub:" urls, connecting only costs the configured latency.
+ */
+public class StubDriver implements Driver {
+    public static final String URL_PREFIX = "jdbc:stub:";
+
+    private final long connectNanos;
+
+    public StubDriver(long connectMicros) {
+        this.connectNanos = TimeUnit.MICROSECONDS.toNanos(connectMicros);
+    }
+
+    @Override
+    public Connection connect(String url, Properties info) throws SQLException {
+        if (!acceptsURL(url)) {
+            return null;
+        }
+
+        if (connectNanos > 0) {
+            LockSupport.parkNanos(connectNanos);
+        }
+
+        return new StubConnection();
+    }
+
+    @Override
+    public boolean acceptsURL(String url) {
+        return url != null && url.startsWith(URL_PREFIX);
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+        return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return 1;
+    }
+
+    @Override
+    public int getMinorVersion() {
+        return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+        return false;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+}
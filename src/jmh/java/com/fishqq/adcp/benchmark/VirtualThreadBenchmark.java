@@ -0,0 +1,97 @@
+package com.fishqq.adcp.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * One operation starts borrowers on fresh virtual threads, each borrows, holds the connection for
+ * holdMicros (parked, like waiting for the database) and closes it, against a pool of poolSize.
+ * Needs a jdk 21+ runtime and a jar built on jdk 21+, the benchmarks themselves compile for java 8,
+ * so the virtual thread executor is looked up reflectively.
+ * <p>
+ * mvn -Pbenchmarks -DskipTests package exec:exec -Djmh.args=VirtualThreadBenchmark, results in target/jmh-result.json
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class VirtualThreadBenchmark {
+    @Param({BenchmarkPools.ADCP, BenchmarkPools.HIKARI})
+    public String pool;
+
+    @Param({"32"})
+    public int poolSize;
+
+    @Param({"100000"})
+    public int borrowers;
+
+    @Param({"0", "100"})
+    public long holdMicros;
+
+    private DataSource dataSource;
+    private ExecutorService executor;
+
+    @Setup(Level.Trial)
+    public void setup() throws ReflectiveOperationException {
+        // otherwise the pool treats the virtual borrowers as platform threads
+        BenchmarkPools.requireVersionedClass("VirtualThreads", 21);
+        executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+
+        dataSource = BenchmarkPools.create(pool, poolSize, 0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        BenchmarkPools.close(dataSource);
+    }
+
+    @Benchmark
+    public int borrowFromVirtualThreads() throws Exception {
+        AtomicInteger borrowed = new AtomicInteger(0);
+        List<Future<?>> futures = new ArrayList<>(borrowers);
+
+        for (int i = 0; i < borrowers; i++) {
+            futures.add(executor.submit(() -> {
+                try (Connection connection = dataSource.getConnection()) {
+                    if (holdMicros > 0) {
+                        LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(holdMicros));
+                    }
+                    borrowed.incrementAndGet();
+                }
+                return null;
+            }));
+        }
+
+        for (Future<?> future : futures) {
+            future.get();
+        }
+
+        return borrowed.get();
+    }
+}
@@ -0,0 +1,161 @@
+package com.fishqq.adcp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Finds how many connections can be busy at once before the database only gets slower, the pool
+ * then hands out at most that many. The connection usage time is the round trip the database
+ * needs: by Little's law more connections than the database can serve in parallel only queue
+ * inside it, the usage time grows while the throughput stays the same.
+ * <p>
+ * Every interval the limit is scaled by the gradient between the no-load usage time and the
+ * measured one (at most 1, a little queueing is tolerated) and grows by its square root while
+ * borrowers had to wait and new connections are created as fast as usual. The no-load usage time
+ * is the fastest interval seen. With probing on, every probeIntervals intervals one interval runs at
+ * a quarter of the limit to measure it again, so it follows a database that became slower for good.
+ * Borrowers wait more during a probe interval. Without probing the no-load usage time only goes down,
+ * and a database that stays slower holds the limit near the minimum.
+ * <p>
+ * update is called by one thread at a time, the record methods by any thread.
+ */
+public class AdaptiveConcurrencyLimit {
+    // measured usage up to this factor over the no-load usage counts as not queueing
+    private static final double RTT_TOLERANCE = 1.2;
+    private static final double MIN_GRADIENT = 0.5;
+    // weight of the new estimate, damps the reaction to a single noisy interval
+    private static final double SMOOTHING = 0.5;
+    static final int DEFAULT_PROBE_INTERVALS = 20;
+    private static final int PROBE_DIVISOR = 4;
+    // creations slower than this over their average mean the database struggles to accept more
+    private static final double CREATE_SLOWDOWN = 2;
+    private static final double CREATE_AVERAGE_WEIGHT = 0.1;
+
+    private final String poolName;
+    // 0 never probes
+    private final int probeIntervals;
+
+    private final LongAdder usageNanos = new LongAdder();
+    private final LongAdder usageCount = new LongAdder();
+    private final LongAdder waitCount = new LongAdder();
+    private final LongAdder createNanos = new LongAdder();
+    private final LongAdder createCount = new LongAdder();
+
+    private volatile int limit;
+    private double estimate;
+    private double noLoadNanos;
+    private double averageCreateNanos;
+    private int intervalsSinceProbe;
+    private boolean probing;
+
+    private final static Logger logger = LoggerFactory.getLogger(AdaptiveConcurrencyLimit.class);
+
+    public AdaptiveConcurrencyLimit(String poolName, int initialLimit) {
+        this(poolName, initialLimit, DEFAULT_PROBE_INTERVALS);
+    }
+
+    public AdaptiveConcurrencyLimit(String poolName, int initialLimit, int probeIntervals) {
+        this.poolName = poolName;
+        this.limit = initialLimit;
+        this.estimate = initialLimit;
+        this.probeIntervals = probeIntervals;
+        this.intervalsSinceProbe = probeIntervals;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    // usage time of the fastest recent interval, 0 until the first one
+    public long getNoLoadNanos() {
+        return (long) noLoadNanos;
+    }
+
+    public void recordUsageNanos(long nanos) {
+        usageNanos.add(nanos);
+        usageCount.increment();
+    }
+
+    public void recordWaitNanos(long nanos) {
+        waitCount.increment();
+    }
+
+    public void recordCreatedNanos(long nanos) {
+        createNanos.add(nanos);
+        createCount.increment();
+    }
+
+    /**
+     * Ends an interval and returns the limit for the next one, between minLimit and maxLimit.
+     * waiters are the borrowers waiting right now.
+     */
+    public int update(int waiters, int minLimit, int maxLimit) {
+        long count = usageCount.sumThenReset();
+        long usage = usageNanos.sumThenReset();
+        boolean waited = waitCount.sumThenReset() > 0 || waiters > 0;
+        long creates = createCount.sumThenReset();
+        long create = createNanos.sumThenReset();
+
+        double meanUsage = count > 0 ? (double) usage / count : 0;
+
+        if (probing) {
+            probing = false;
+
+            // measured below the usual limit, replaces a no-load time the database can't reach any more
+            if (count > 0) {
+                noLoadNanos = meanUsage;
+            }
+
+            return apply(estimate, minLimit, maxLimit);
+        }
+
+        if (count == 0) {
+            // nothing borrowed, nothing learned
+            return apply(estimate, minLimit, maxLimit);
+        }
+
+        noLoadNanos = noLoadNanos > 0 ? Math.min(noLoadNanos, meanUsage) : meanUsage;
+
+        boolean slowCreation = false;
+        if (creates > 0) {
+            double meanCreate = (double) create / creates;
+            slowCreation = averageCreateNanos > 0 && meanCreate > averageCreateNanos * CREATE_SLOWDOWN;
+            averageCreateNanos = averageCreateNanos > 0
+                    ? averageCreateNanos * (1 - CREATE_AVERAGE_WEIGHT) + meanCreate * CREATE_AVERAGE_WEIGHT
+                    : meanCreate;
+        }
+
+        double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, RTT_TOLERANCE * noLoadNanos / meanUsage));
+        double headroom = waited && !slowCreation ? Math.sqrt(estimate) : 0;
+        double next = estimate * gradient + headroom;
+
+        estimate = Math.max(minLimit, Math.min(maxLimit, estimate * (1 - SMOOTHING) + next * SMOOTHING));
+
+        if (probeIntervals > 0 && ++intervalsSinceProbe >= probeIntervals && estimate > minLimit) {
+            intervalsSinceProbe = 0;
+            probing = true;
+            return apply(Math.max(minLimit, estimate / PROBE_DIVISOR), minLimit, maxLimit);
+        }
+
+        return apply(estimate, minLimit, maxLimit);
+    }
+
+    private int apply(double value, int minLimit, int maxLimit) {
+        int next = (int) Math.max(minLimit, Math.min(maxLimit, Math.round(value)));
+
+        if (next != limit) {
+            logger.debug("{} - concurrency limit {} -> {}{}, no-load usage {} us",
+                    poolName, limit, next, probing ? " (probe)" : "", (long) noLoadNanos / 1000);
+            limit = next;
+        }
+
+        return next;
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptiveConcurrencyLimit{limit=" + limit + ", noLoadUsageUs=" + (long) noLoadNanos / 1000 + '}';
+    }
+}
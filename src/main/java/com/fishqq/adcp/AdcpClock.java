@@ -0,0 +1,17 @@
+package com.fishqq.adcp;
+
+/**
+ * Time source of a pool. Both methods are monotonic nanos on the same time base as
+ * {@link System#nanoTime()}, differences between them are what counts, never the absolute value.
+ */
+public interface AdcpClock {
+    AdcpClock SYSTEM = System::nanoTime;
+
+    // precise, for latencies and deadlines
+    long nanoTime();
+
+    // may lag behind nanoTime() by a tick, for cheap ages like idle time and lifetime
+    default long coarseNanoTime() {
+        return nanoTime();
+    }
+}
@@ -9,9 +9,15 @@ import java.io.PrintWriter;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.SQLFeatureNotSupportedException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 public class AdcpDataSource implements DataSource, Closeable {
     private final AdcpPool pool;
+    // null unless maxCredentialPools is set
+    private final CredentialPools credentialPools;
     private volatile boolean isClosed = false;
 
     private static final Logger logger = LoggerFactory.getLogger(AdcpDataSource.class);
@@ -22,7 +28,13 @@ public class AdcpDataSource implements DataSource, Closeable {
 
     public AdcpDataSource(AdcpPoolConfig config, DataSource dataSource, AdcpMonitor monitor) {
         logger.info("{} - Starting...\n{}", config.getPoolName(), config);
-        this.pool = new AdcpPool(config, dataSource, monitor);
+        ConnectionBudget budget = config.getMaxTotalConnections() > 0
+                ? new ConnectionBudget(config.getMaxTotalConnections())
+                : null;
+        this.pool = new AdcpPool(config, dataSource, monitor, budget);
+        this.credentialPools = config.getMaxCredentialPools() > 0
+                ? new CredentialPools(config, dataSource, pool, budget)
+                : null;
         logger.info("{} - Start completed.", config.getPoolName());
     }
 
@@ -30,6 +42,38 @@ public class AdcpDataSource implements DataSource, Closeable {
         return pool;
     }
 
+    /**
+     * Metrics of the pools opened by {@link #getConnection(String, String)} by username, empty
+     * when credential pools are disabled.
+     */
+    public Map<String, AdcpMetrics> getCredentialPoolMetrics() {
+        return credentialPools != null ? credentialPools.metrics() : Collections.emptyMap();
+    }
+
+    public AdcpPoolConfig getConfig() {
+        return pool.getConfig();
+    }
+
+    /**
+     * Changes the pool size without a restart, warm connections are kept. Shrinking closes
+     * idle connections above the new size at once and busy ones when they are closed.
+     */
+    public void resize(int maxPoolSize, int minIdle) {
+        pool.resize(maxPoolSize, minIdle);
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return pool.getCircuitBreaker();
+    }
+
+    AdcpPool getPool() {
+        return pool;
+    }
+
+    boolean isClosed() {
+        return isClosed;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -43,11 +87,52 @@ public class AdcpDataSource implements DataSource, Closeable {
     }
 
     /**
-     * {@inheritDoc}
+     * Like {@link #getConnection()} but waits at most the given time instead of the configured
+     * borrow timeout, e.g. whatever is left of the caller's request deadline.
+     */
+    public Connection borrow(long timeout, TimeUnit unit) throws SQLException {
+        if (isClosed) {
+            throw new SQLException("AdcpDataSource" + this + " has been closed.");
+        }
+
+        return pool.borrow(timeout, unit);
+    }
+
+    /**
+     * Borrows without blocking the caller, the future fails after the configured borrow timeout.
+     * It completes on a pool thread or on the thread giving back a connection, so chain with the
+     * async variants of CompletableFuture for anything that takes time.
+     */
+    public CompletableFuture<Connection> getConnectionAsync() {
+        return getConnectionAsync(pool.getConfig().getBorrowTimeoutMs(), TimeUnit.MILLISECONDS);
+    }
+
+    public CompletableFuture<Connection> getConnectionAsync(long timeout, TimeUnit unit) {
+        if (isClosed) {
+            CompletableFuture<Connection> future = new CompletableFuture<>();
+            future.completeExceptionally(new SQLException("AdcpDataSource" + this + " has been closed."));
+            return future;
+        }
+
+        return pool.borrowAsync(timeout, unit);
+    }
+
+    /**
+     * Borrows from a pool of its own per username and password, opened on first use and closed
+     * when it was not used for credentialPoolIdleTimeoutSeconds. Only supported when
+     * maxCredentialPools is set.
      */
     @Override
     public Connection getConnection(String username, String password) throws SQLException {
-        throw new SQLFeatureNotSupportedException("adcp datasource don't support to get connection with username and password");
+        if (credentialPools == null) {
+            throw new SQLFeatureNotSupportedException("adcp datasource don't support to get connection with username and password");
+        }
+
+        if (isClosed) {
+            throw new SQLException("AdcpDataSource" + this + " has been closed.");
+        }
+
+        return credentialPools.borrow(username, password);
     }
 
     /**
@@ -145,6 +230,9 @@ public class AdcpDataSource implements DataSource, Closeable {
         try {
             isClosed = true;
             logger.info("{} - Shutdown initiated...", pool.getConfig().getPoolName());
+            if (credentialPools != null) {
+                credentialPools.close();
+            }
             pool.shutdown();
             logger.info("{} - Shutdown completed.", pool.getConfig().getPoolName());
         } finally {
@@ -0,0 +1,74 @@
+package com.fishqq.adcp;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// one scheduler thread shared by all pools, it stops when the last registration is cancelled. each
+// schedule is a registration released once, cancelling the same task again changes nothing
+final class AdcpHousekeeper {
+    static final AdcpHousekeeper HOUSEKEEPING = new AdcpHousekeeper("adcp-housekeeper");
+    // coarse clock ticks get their own thread, a slow housekeeping run must not stop the clock
+    static final AdcpHousekeeper CLOCK = new AdcpHousekeeper("adcp-clock");
+    // async borrow timeouts too, a slow driver close on the housekeeper must not delay them in every pool
+    static final AdcpHousekeeper TIMEOUTS = new AdcpHousekeeper("adcp-timeouts");
+
+    private final String threadName;
+    private volatile ScheduledThreadPoolExecutor executor;
+    private final Set<ScheduledFuture<?>> registrations = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private AdcpHousekeeper(String threadName) {
+        this.threadName = threadName;
+    }
+
+    synchronized ScheduledFuture<?> schedule(Runnable task, long initialDelayMs, long periodMs) {
+        ScheduledFuture<?> future = start().scheduleWithFixedDelay(task, initialDelayMs, periodMs, TimeUnit.MILLISECONDS);
+        registrations.add(future);
+        return future;
+    }
+
+    // keeps the thread for one-off tasks of a caller without periodic work, a task that never runs
+    synchronized ScheduledFuture<?> register() {
+        ScheduledFuture<?> future = start().schedule(() -> {
+        }, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        registrations.add(future);
+        return future;
+    }
+
+    private ScheduledThreadPoolExecutor start() {
+        if (executor == null) {
+            executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+                Thread thread = new Thread(runnable, threadName);
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.setRemoveOnCancelPolicy(true);
+            executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        }
+        return executor;
+    }
+
+    // one-off task, for a caller that holds a schedule. rejected when the last one was cancelled meanwhile
+    ScheduledFuture<?> scheduleOnce(Runnable task, long delayNanos) {
+        ScheduledThreadPoolExecutor current = executor;
+
+        if (current == null) {
+            throw new RejectedExecutionException(threadName + " is stopped");
+        }
+
+        return current.schedule(task, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    synchronized void cancel(ScheduledFuture<?> future) {
+        future.cancel(false);
+
+        if (registrations.remove(future) && registrations.isEmpty()) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+}
@@ -1,43 +1,304 @@
 package com.fishqq.adcp;
 
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+/**
+ * In memory monitor. Events are recorded into stripes picked by thread id, each stripe is a plain
+ * set of counters and histograms behind a try-lock, so recording is one uncontended CAS and a few
+ * plain writes, and a thread that finds its stripe busy moves on to another one instead of waiting.
+ * Reading locks one stripe at a time, so every event is either fully in a snapshot or not at all,
+ * and reset() moves each stripe into the finished interval without losing concurrent events.
+ */
 public class AdcpMemoryMonitor implements AdcpMonitor {
-    private final AtomicLong acquireCount = new AtomicLong(0);
-    private final AtomicLong acquireTimeMs = new AtomicLong(0);
-    private final AtomicLong timeoutCount = new AtomicLong(0);
-    private final AtomicLong waitCount = new AtomicLong(0);
-    private final AtomicLong waitTimeMs = new AtomicLong(0);
-    private final AtomicLong connectionCreateError = new AtomicLong(0);
-    private final AtomicLong invalidConnectionCount = new AtomicLong(0);
-    private final AtomicLong createRawConnectionsCount = new AtomicLong(0);
-    private final AtomicLong createRawConnectionTotalTimeMs = new AtomicLong(0);
-
-    private final AtomicLong usedCount = new AtomicLong(0);
-    private final AtomicLong usedTimeMs = new AtomicLong(0);
-
-    @Override
-    public void reset() {
-        this.acquireCount.set(0);
-        this.acquireTimeMs.set(0);
-        this.timeoutCount.set(0);
-        this.waitCount.set(0);
-        this.waitTimeMs.set(0);
-        this.connectionCreateError.set(0);
-        this.createRawConnectionsCount.set(0);
-        this.createRawConnectionTotalTimeMs.set(0);
-        this.invalidConnectionCount.set(0);
-        this.usedCount.set(0);
-        this.usedTimeMs.set(0);
+    private static final int ACQUIRE = 0;
+    private static final int WAIT = 1;
+    private static final int USAGE = 2;
+    private static final int CREATION = 3;
+    private static final int HOUSEKEEPING = 4;
+    private static final int VALIDATION = 5;
+    private static final int HISTOGRAM_COUNT = 6;
+
+    private static final int CONNECTION_CREATE_ERROR = 0;
+    private static final int INVALID_CONNECTION = 1;
+    private static final int TIMEOUT = 2;
+    private static final int STATEMENT_CACHE_HIT = 3;
+    private static final int STATEMENT_CACHE_MISS = 4;
+    private static final int STATEMENT_CACHE_EVICTION = 5;
+    private static final int CIRCUIT_BREAKER_OPENED = 6;
+    private static final int COUNTER_COUNT = 7;
+
+    private static final int STRIPE_COUNT = stripeCount();
+
+    // stripes are created on first use, most threads map to a handful of them
+    private final AtomicReferenceArray<Stripe> stripes = new AtomicReferenceArray<>(STRIPE_COUNT);
+
+    // guarded by this, what the stripes held at the last reads since the last reset
+    private final Stripe interval = new Stripe();
+    private volatile Snapshot lastInterval = new Snapshot(new Stripe(), CircuitBreaker.State.CLOSED);
+    private volatile CircuitBreaker.State circuitBreakerState = CircuitBreaker.State.CLOSED;
+
+    private static int stripeCount() {
+        int cpus = Math.max(2, Runtime.getRuntime().availableProcessors());
+        return Math.min(16, Integer.highestOneBit(cpus - 1) << 1);
+    }
+
+    private static final class Stripe {
+        private final AtomicInteger lock = new AtomicInteger(0);
+
+        final LogHistogram[] histograms = new LogHistogram[HISTOGRAM_COUNT];
+        final long[] counters = new long[COUNTER_COUNT];
+
+        Stripe() {
+            for (int i = 0; i < HISTOGRAM_COUNT; i++) {
+                histograms[i] = new LogHistogram();
+            }
+        }
+
+        boolean tryLock() {
+            return lock.get() == 0 && lock.compareAndSet(0, 1);
+        }
+
+        void unlock() {
+            lock.lazySet(0);
+        }
+
+        // moves everything into target and starts over, the caller holds both
+        void drainTo(Stripe target) {
+            for (int i = 0; i < HISTOGRAM_COUNT; i++) {
+                histograms[i].addTo(target.histograms[i]);
+                histograms[i].clear();
+            }
+            for (int i = 0; i < COUNTER_COUNT; i++) {
+                target.counters[i] += counters[i];
+                counters[i] = 0;
+            }
+        }
+
+        void clear() {
+            for (LogHistogram histogram : histograms) {
+                histogram.clear();
+            }
+            for (int i = 0; i < COUNTER_COUNT; i++) {
+                counters[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * What was recorded in one interval, times are in nanos.
+     */
+    public static final class Snapshot {
+        private final HistogramSnapshot acquire;
+        private final HistogramSnapshot wait;
+        private final HistogramSnapshot usage;
+        private final HistogramSnapshot creation;
+        private final HistogramSnapshot housekeeping;
+        private final HistogramSnapshot validation;
+
+        private final long connectionCreateError;
+        private final long invalidConnection;
+        private final long timeout;
+        private final long statementCacheHit;
+        private final long statementCacheMiss;
+        private final long statementCacheEviction;
+        private final long circuitBreakerOpened;
+        private final CircuitBreaker.State circuitBreakerState;
+
+        private Snapshot(Stripe totals, CircuitBreaker.State circuitBreakerState) {
+            this.acquire = totals.histograms[ACQUIRE].snapshot();
+            this.wait = totals.histograms[WAIT].snapshot();
+            this.usage = totals.histograms[USAGE].snapshot();
+            this.creation = totals.histograms[CREATION].snapshot();
+            this.housekeeping = totals.histograms[HOUSEKEEPING].snapshot();
+            this.validation = totals.histograms[VALIDATION].snapshot();
+            this.connectionCreateError = totals.counters[CONNECTION_CREATE_ERROR];
+            this.invalidConnection = totals.counters[INVALID_CONNECTION];
+            this.timeout = totals.counters[TIMEOUT];
+            this.statementCacheHit = totals.counters[STATEMENT_CACHE_HIT];
+            this.statementCacheMiss = totals.counters[STATEMENT_CACHE_MISS];
+            this.statementCacheEviction = totals.counters[STATEMENT_CACHE_EVICTION];
+            this.circuitBreakerOpened = totals.counters[CIRCUIT_BREAKER_OPENED];
+            this.circuitBreakerState = circuitBreakerState;
+        }
+
+        public HistogramSnapshot getAcquire() {
+            return acquire;
+        }
+
+        public HistogramSnapshot getWait() {
+            return wait;
+        }
+
+        public HistogramSnapshot getUsage() {
+            return usage;
+        }
+
+        public HistogramSnapshot getCreation() {
+            return creation;
+        }
+
+        public HistogramSnapshot getHousekeeping() {
+            return housekeeping;
+        }
+
+        public HistogramSnapshot getValidation() {
+            return validation;
+        }
+
+        public long getConnectionCreateErrorCount() {
+            return connectionCreateError;
+        }
+
+        public long getInvalidConnectionCount() {
+            return invalidConnection;
+        }
+
+        public long getTimeoutCount() {
+            return timeout;
+        }
+
+        public long getStatementCacheHitCount() {
+            return statementCacheHit;
+        }
+
+        public long getStatementCacheMissCount() {
+            return statementCacheMiss;
+        }
+
+        public long getStatementCacheEvictionCount() {
+            return statementCacheEviction;
+        }
+
+        public long getCircuitBreakerOpenedCount() {
+            return circuitBreakerOpened;
+        }
+
+        // when the snapshot was taken
+        public CircuitBreaker.State getCircuitBreakerState() {
+            return circuitBreakerState;
+        }
+
+        @Override
+        public String toString() {
+            return "connectionCreateError=" + connectionCreateError +
+                    "\nacquireNanos " + acquire +
+                    "\nwaitNanos " + wait +
+                    "\ntimeoutCount=" + timeout +
+                    "\ninvalidConnectionCount=" + invalidConnection +
+                    "\nconnectionUsedNanos " + usage +
+                    "\ncreateRawConnectionNanos " + creation +
+                    "\nhousekeepingNanos " + housekeeping +
+                    "\nvalidationNanos " + validation +
+                    "\nstatementCacheHitCount=" + statementCacheHit +
+                    "\nstatementCacheMissCount=" + statementCacheMiss +
+                    "\nstatementCacheEvictionCount=" + statementCacheEviction +
+                    "\ncircuitBreakerOpenedCount=" + circuitBreakerOpened +
+                    "\ncircuitBreakerState=" + circuitBreakerState;
+        }
+    }
+
+    // returns a locked stripe, the caller unlocks it
+    private Stripe lockStripe() {
+        int index = (int) Thread.currentThread().getId();
+        int attempts = 0;
+
+        while (true) {
+            // every stripe is busy, likely their owners got descheduled inside
+            if (++attempts > STRIPE_COUNT) {
+                Thread.yield();
+                attempts = 0;
+            }
+
+            index &= STRIPE_COUNT - 1;
+            Stripe stripe = stripes.get(index);
+
+            if (stripe == null) {
+                stripes.compareAndSet(index, null, new Stripe());
+                stripe = stripes.get(index);
+            }
+
+            if (stripe.tryLock()) {
+                return stripe;
+            }
+
+            ++index;
+        }
+    }
+
+    private void record(int histogram, long value) {
+        Stripe stripe = lockStripe();
+        stripe.histograms[histogram].record(value);
+        stripe.unlock();
+    }
+
+    private void increment(int counter) {
+        Stripe stripe = lockStripe();
+        stripe.counters[counter]++;
+        stripe.unlock();
+    }
+
+    // adds all stripes to the interval, the caller holds the monitor lock
+    private void collect() {
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            Stripe stripe = stripes.get(i);
+            if (stripe == null) {
+                continue;
+            }
+
+            while (!stripe.tryLock()) {
+                SpinWait.onSpinWait();
+            }
+
+            try {
+                stripe.drainTo(interval);
+            } finally {
+                stripe.unlock();
+            }
+        }
+    }
+
+    /**
+     * What was recorded since the last reset.
+     */
+    public synchronized Snapshot snapshot() {
+        collect();
+        return new Snapshot(interval, circuitBreakerState);
+    }
+
+    /**
+     * The interval that ended with the last reset.
+     */
+    public Snapshot getLastInterval() {
+        return lastInterval;
+    }
+
+    @Override
+    public synchronized void reset() {
+        collect();
+        lastInterval = new Snapshot(interval, circuitBreakerState);
+        interval.clear();
     }
 
     public long getAvgUsedTime() {
-        return usedCount.get() == 0 ? 0 : usedTimeMs.get() / usedCount.get();
+        return TimeUnit.NANOSECONDS.toMillis(snapshot().getUsage().getMean());
     }
 
     public long getAvgCreateRawConnectionTime() {
-        return createRawConnectionsCount.get() == 0 ? 0 :
-                createRawConnectionTotalTimeMs.get() / createRawConnectionsCount.get();
+        return TimeUnit.NANOSECONDS.toMillis(snapshot().getCreation().getMean());
+    }
+
+    public long getAvgAcquireTimeMs() {
+        return TimeUnit.NANOSECONDS.toMillis(snapshot().getAcquire().getMean());
+    }
+
+    public long getAvgWaitMs() {
+        return TimeUnit.NANOSECONDS.toMillis(snapshot().getWait().getMean());
+    }
+
+    public long getAvgHousekeepingMs() {
+        return TimeUnit.NANOSECONDS.toMillis(snapshot().getHousekeeping().getMean());
     }
 
     @Override
@@ -46,50 +307,71 @@ public class AdcpMemoryMonitor implements AdcpMonitor {
     }
 
     @Override
-    public void recordConnectionCreatedMs(long ms) {
-        createRawConnectionsCount.incrementAndGet();
-        createRawConnectionTotalTimeMs.addAndGet(ms);
+    public void recordConnectionCreatedNanos(long nanos) {
+        record(CREATION, nanos);
     }
 
     @Override
     public void recordConnectionCreateError() {
-        connectionCreateError.incrementAndGet();
+        increment(CONNECTION_CREATE_ERROR);
     }
 
     @Override
-    public void recordConnectionAcquiredMs(long ms) {
-        acquireCount.incrementAndGet();
-        acquireTimeMs.addAndGet(ms);
-    }
-
-    public long getAvgAcquireTimeMs() {
-        return acquireCount.get() == 0 ? 0 : acquireTimeMs.get() / acquireCount.get();
+    public void recordConnectionAcquiredNanos(long nanos) {
+        record(ACQUIRE, nanos);
     }
 
     @Override
-    public void recordConnectionUsageMs(long ms) {
-        usedCount.incrementAndGet();
-        usedTimeMs.addAndGet(ms);
+    public void recordConnectionUsageNanos(long nanos) {
+        record(USAGE, nanos);
     }
 
     @Override
     public void recordInvalidConnection() {
-        invalidConnectionCount.incrementAndGet();
+        increment(INVALID_CONNECTION);
     }
 
     @Override
     public void recordConnectionTimeout() {
-        timeoutCount.incrementAndGet();
+        increment(TIMEOUT);
     }
 
     @Override
-    public void recordWait(long ms) {
-        waitCount.incrementAndGet();
-        waitTimeMs.addAndGet(ms);
+    public void recordWaitNanos(long nanos) {
+        record(WAIT, nanos);
     }
 
-    public long getAvgWaitMs() {
-        return waitCount.get() == 0 ? 0 : waitTimeMs.get() / waitCount.get();
+    @Override
+    public void recordHousekeepingNanos(long nanos) {
+        record(HOUSEKEEPING, nanos);
+    }
+
+    @Override
+    public void recordValidationNanos(long nanos) {
+        record(VALIDATION, nanos);
+    }
+
+    @Override
+    public void recordCircuitBreakerState(CircuitBreaker.State state) {
+        circuitBreakerState = state;
+        if (state == CircuitBreaker.State.OPEN) {
+            increment(CIRCUIT_BREAKER_OPENED);
+        }
+    }
+
+    @Override
+    public void recordStatementCacheHit() {
+        increment(STATEMENT_CACHE_HIT);
+    }
+
+    @Override
+    public void recordStatementCacheMiss() {
+        increment(STATEMENT_CACHE_MISS);
+    }
+
+    @Override
+    public void recordStatementCacheEviction() {
+        increment(STATEMENT_CACHE_EVICTION);
     }
 
     @Override
@@ -99,16 +381,6 @@ public class AdcpMemoryMonitor implements AdcpMonitor {
 
     @Override
     public String toString() {
-        return "connectionCreateError=" + connectionCreateError.get() +
-                "\nacquireCount=" + acquireCount.get() +
-                "\navgAcquireTimeMs=" + getAvgAcquireTimeMs() +
-                "\nwaitCount=" + waitCount.get() +
-                "\navgWaitTimeMs=" + getAvgWaitMs() +
-                "\ntimeoutCount=" + timeoutCount.get() +
-                "\ninvalidConnectionCount=" + invalidConnectionCount.get() +
-                "\nconnectionUsedCount=" + usedCount.get() +
-                "\navgConnectionUsedTimeMs=" + getAvgUsedTime() +
-                "\ncreateRawConnectionsCount=" + createRawConnectionsCount.get() +
-                "\naveCreateRawConnectionsTimeMs=" + getAvgCreateRawConnectionTime();
+        return snapshot().toString();
     }
 }
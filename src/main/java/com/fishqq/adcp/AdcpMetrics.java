@@ -1,15 +1,30 @@
 package com.fishqq.adcp;
 
 public interface AdcpMetrics {
-    int getTotalConnectionCount();
+    // one consistent read of the pool, exporters take one per scrape
+    PoolStatistic snapshot();
 
-    int getIdleConnectionCount();
+    default int getTotalConnectionCount() {
+        return snapshot().getTotalCount();
+    }
 
-    int getActiveConnectionCount();
+    default int getIdleConnectionCount() {
+        return snapshot().getIdleCount();
+    }
 
-    int getMaxConnectionCount();
+    default int getActiveConnectionCount() {
+        return snapshot().getActiveCount();
+    }
 
-    int getMinConnectionCount();
+    default int getMaxConnectionCount() {
+        return snapshot().getMaxCount();
+    }
 
-    int getPendingThreadCount();
+    default int getMinConnectionCount() {
+        return snapshot().getMinCount();
+    }
+
+    default int getPendingThreadCount() {
+        return snapshot().getWaiterCount();
+    }
 }
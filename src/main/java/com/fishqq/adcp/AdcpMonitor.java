@@ -1,21 +1,35 @@
 package com.fishqq.adcp;
 
+// all durations are in nanoseconds
 public interface AdcpMonitor extends AutoCloseable {
     void initMetrics(AdcpMetrics metrics);
 
-    void recordConnectionCreatedMs(long ms);
+    void recordConnectionCreatedNanos(long nanos);
 
     void recordConnectionCreateError();
 
-    void recordConnectionAcquiredMs(long ms);
+    void recordConnectionAcquiredNanos(long nanos);
 
-    void recordConnectionUsageMs(long ms);
+    void recordConnectionUsageNanos(long nanos);
 
     void recordInvalidConnection();
 
     void recordConnectionTimeout();
 
-    void recordWait(long ms);
+    void recordWaitNanos(long nanos);
+
+    void recordHousekeepingNanos(long nanos);
+
+    void recordValidationNanos(long nanos);
+
+    // called on every transition with the new state
+    void recordCircuitBreakerState(CircuitBreaker.State state);
+
+    void recordStatementCacheHit();
+
+    void recordStatementCacheMiss();
+
+    void recordStatementCacheEviction();
 
     void reset();
 
@@ -6,15 +6,25 @@ import org.slf4j.LoggerFactory;
 import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
 import java.sql.SQLTransientConnectionException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+import java.util.function.LongConsumer;
+import java.util.function.Predicate;
 
 public class AdcpPool implements AdcpMetrics {
     private final Pool<ProxyConnection> pool;
@@ -22,65 +32,180 @@ public class AdcpPool implements AdcpMetrics {
     private final DataSource dataSource;
     private final AdcpPoolConfig config;
     private final AdcpMonitor monitor;
+    private final AdcpClock clock;
+    private final ConnectionValidator validator;
+    // cleared when the driver can't, validation then relies on the validator's own timeout
+    private volatile boolean networkTimeoutSupported = true;
 
-    private volatile boolean closed;
+    private final AtomicBoolean closed = new AtomicBoolean(false);
 
     private final AtomicLong connectionId = new AtomicLong(0);
-    private final Map<Thread, Long> pendingThreads = new ConcurrentHashMap<>();
+    // created once, borrow must not allocate
+    private final LongConsumer waitRecorder;
+    private final Runnable fillRequest;
+
+    // new connections are only created here, borrowers wait for whichever idle connection comes first
+    private final Executor fillExecutor;
+    // null when connections are created on the configured creation executor
+    private final ThreadPoolExecutor fillThreads;
+    private final RateLimiter creationRateLimiter;
+    private final AtomicInteger pendingCreations = new AtomicInteger(0);
+    private volatile Throwable lastCreateError;
+    // at most one retry of failed creations waits at a time
+    private final AtomicBoolean createRetryScheduled = new AtomicBoolean(false);
+    private static final long CREATE_RETRY_MIN_MS = 50;
+    private static final long CREATE_RETRY_MAX_MS = 2000;
+    private final CircuitBreaker circuitBreaker;
+    // null when the circuit breaker is disabled
+    private final ScheduledFuture<?> circuitBreakerProbe;
+    // both null when the adaptive limit is disabled
+    private final AdaptiveConcurrencyLimit concurrencyLimit;
+    private final ScheduledFuture<?> concurrencyLimitUpdate;
+    // shared with other pools whose connections count against the same cap, null when there is none
+    private final ConnectionBudget budget;
+
+    // cumulative counters for PoolStatistic, only touched off the borrow fast path
+    private final AtomicLong createdCount = new AtomicLong(0);
+    private final AtomicLong closedCount = new AtomicLong(0);
+    private final AtomicLong createErrorCount = new AtomicLong(0);
+    private final AtomicLong invalidCount = new AtomicLong(0);
+    private final AtomicLong timeoutCount = new AtomicLong(0);
+
+    private final ScheduledFuture<?> housekeeping;
+    // holds the timeout thread of async borrows while the pool is open
+    private final ScheduledFuture<?> asyncTimeouts;
+    private static final int RECYCLE_BATCH_SIZE = 8;
+    private static final Executor DIRECT_EXECUTOR = Runnable::run;
+
+    // null when keepalive is disabled
+    private final ScheduledFuture<?> keepalive;
+    private final AtomicBoolean keepaliveRunning = new AtomicBoolean(false);
+    // connections validated at once, the others stay idle for borrowers meanwhile
+    private static final int KEEPALIVE_BATCH_SIZE = 4;
+    // runs per keepalive interval, each checks at most half the pool so the checks spread over the interval
+    private static final int KEEPALIVE_RUNS_PER_INTERVAL = 4;
+    private static final long KEEPALIVE_MIN_PERIOD_MS = 100;
 
     private final static Logger logger = LoggerFactory.getLogger(AdcpPool.class);
 
     public AdcpPool(AdcpPoolConfig adcpPoolConfig, DataSource dataSource, AdcpMonitor monitor) {
+        this(adcpPoolConfig, dataSource, monitor, null);
+    }
+
+    AdcpPool(AdcpPoolConfig adcpPoolConfig, DataSource dataSource, AdcpMonitor monitor, ConnectionBudget budget) {
         this.config = adcpPoolConfig;
+        this.budget = budget;
         this.dataSource = dataSource;
         this.monitor = monitor;
-        this.pool = new Pool<>(config.getMaxPoolSize());
-
-        Timer timer = new Timer("connection-recycle", true);
-        timer.schedule(
-                new TimerTask() {
-                    @Override
-                    public void run() {
-                        logger.info("idle: {}, active: {}, metrics\n{}", pool.idleCount(), pool.activeCount(), monitor);
-                        monitor.reset();
-
-                        if (pool.idleCount() <= adcpPoolConfig.getMinIdle()) {
-                            return;
-                        }
-                        if (!pendingThreads.isEmpty()) {
-                            return;
-                        }
-
-                        long timeoutMs = config.getIdleTimeoutSeconds() * 1000L;
-                        long maxLifetime = config.getMaxLifetimeSeconds() * 1000L;
-                        long now = System.currentTimeMillis();
-
-                        List<Connection> recycledConnections = new ArrayList<>();
-
-                        pool.recycleIdleItems(
-                                proxy -> {
-                                    recycledConnections.add(proxy.rawConnection());
-                                    proxy.reset();
-                                },
-                                (conn) -> conn.getIdleMs() >= timeoutMs
-                                        || now - conn.getCreatedAt() >= maxLifetime,
-                                () -> pool.idleCount() <= config.getMinIdle() || !pendingThreads.isEmpty());
-
-                        if (!recycledConnections.isEmpty()) {
-                            logger.info("recycled {} idle connections", recycledConnections.size());
-                        }
-
-                        recycledConnections.forEach(AdcpPool::closeJdbcConnection);
-                    }
-                },
-                TimeUnit.SECONDS.toMillis(config.getRecyclePeriodSeconds()),
-                TimeUnit.SECONDS.toMillis(config.getRecyclePeriodSeconds()));
+        this.clock = config.getCoarseClockTickMs() > 0
+                ? new CoarseClock(config.getClock(), config.getCoarseClockTickMs())
+                : config.getClock();
+        this.validator = config.getConnectionValidator() != null
+                ? config.getConnectionValidator()
+                : config.getValidationQuery() != null
+                ? new QueryConnectionValidator(config.getValidationQuery())
+                : ConnectionValidator.IS_VALID;
+        this.concurrencyLimit = config.getAdaptiveLimitIntervalMs() > 0
+                ? new AdaptiveConcurrencyLimit(
+                        config.getPoolName(), config.getMaxPoolSize(), config.getAdaptiveLimitProbeIntervals())
+                : null;
+        this.waitRecorder = concurrencyLimit != null
+                ? nanos -> {
+                    monitor.recordWaitNanos(nanos);
+                    concurrencyLimit.recordWaitNanos(nanos);
+                }
+                : monitor::recordWaitNanos;
+        this.fillRequest = this::fillIfNeeded;
+        this.pool = new Pool<>(
+                config.getMaxPoolSize(),
+                config.isThreadAffinityEnabled(),
+                config.isFairHandoffEnabled(),
+                config.getStripes(),
+                clock);
+
+        // at most maxConcurrentCreations connects run against the database at the same time,
+        // created connections go to whichever borrower is first in line, not the one that asked
+        int maxCreations = Math.max(1, Math.min(config.getMaxConcurrentCreations(), config.getMaxPoolSize()));
+
+        if (config.getCreationExecutor() != null) {
+            this.fillThreads = null;
+            this.fillExecutor = new LimitedExecutor(config.getCreationExecutor(), maxCreations);
+        } else {
+            AtomicInteger fillThreadIndex = new AtomicInteger(0);
+            this.fillThreads = new ThreadPoolExecutor(
+                    maxCreations, maxCreations, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(),
+                    runnable -> {
+                        Thread thread = new Thread(
+                                runnable, config.getPoolName() + "-connection-filler-" + fillThreadIndex.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            this.fillThreads.allowCoreThreadTimeOut(true);
+            this.fillExecutor = fillThreads;
+        }
+
+        this.creationRateLimiter = new RateLimiter(config.getMaxCreationsPerSecond(), clock);
+        this.circuitBreaker = new CircuitBreaker(config.getPoolName(), config.getCircuitBreakerFailureThreshold(),
+                TimeUnit.MILLISECONDS.toNanos(config.getCircuitBreakerProbeIntervalMs()), clock, monitor);
+
+        long recyclePeriodMs = TimeUnit.SECONDS.toMillis(config.getRecyclePeriodSeconds());
+        this.housekeeping = AdcpHousekeeper.HOUSEKEEPING.schedule(this::housekeep, recyclePeriodMs, recyclePeriodMs);
+        this.asyncTimeouts = AdcpHousekeeper.TIMEOUTS.register();
+
+        long keepaliveMs = config.getKeepaliveIntervalMs();
+        long keepalivePeriodMs = Math.max(KEEPALIVE_MIN_PERIOD_MS, keepaliveMs / KEEPALIVE_RUNS_PER_INTERVAL);
+        this.keepalive = keepaliveMs > 0
+                ? AdcpHousekeeper.HOUSEKEEPING.schedule(this::keepalive, keepalivePeriodMs, keepalivePeriodMs)
+                : null;
+
+        // checked a few times per interval, the breaker itself waits the interval before a probe
+        long probeCheckMs = Math.max(10, config.getCircuitBreakerProbeIntervalMs() / 4);
+        this.circuitBreakerProbe = config.getCircuitBreakerFailureThreshold() > 0
+                ? AdcpHousekeeper.HOUSEKEEPING.schedule(this::probeIfOpen, probeCheckMs, probeCheckMs)
+                : null;
+
+        long limitIntervalMs = config.getAdaptiveLimitIntervalMs();
+        this.concurrencyLimitUpdate = concurrencyLimit != null
+                ? AdcpHousekeeper.HOUSEKEEPING.schedule(this::updateConcurrencyLimit, limitIntervalMs, limitIntervalMs)
+                : null;
+
+        // pre-warm min idle connections
+        fillIfNeeded();
     }
 
+    // only the first call shuts down, a second close must not release the shared housekeeper again
     public void shutdown() {
-        closed = true;
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+
+        AdcpHousekeeper.HOUSEKEEPING.cancel(housekeeping);
+        AdcpHousekeeper.TIMEOUTS.cancel(asyncTimeouts);
+        if (keepalive != null) {
+            AdcpHousekeeper.HOUSEKEEPING.cancel(keepalive);
+        }
+        if (circuitBreakerProbe != null) {
+            AdcpHousekeeper.HOUSEKEEPING.cancel(circuitBreakerProbe);
+        }
+        if (concurrencyLimitUpdate != null) {
+            AdcpHousekeeper.HOUSEKEEPING.cancel(concurrencyLimitUpdate);
+        }
+        if (clock instanceof CoarseClock) {
+            ((CoarseClock) clock).close();
+        }
+        if (fillThreads != null) {
+            fillThreads.shutdownNow();
+        } else {
+            ((LimitedExecutor) fillExecutor).clear();
+        }
 
         pool.destroyAll(connection -> {
+            closedCount.incrementAndGet();
+            if (budget != null) {
+                budget.release();
+            }
+            validator.onClose(connection.rawConnection());
             try {
                 connection.rawConnection().close();
             } catch (Throwable e) {
@@ -91,139 +216,749 @@ public class AdcpPool implements AdcpMetrics {
         monitor.close();
     }
 
-    public ProxyConnection borrow() throws SQLException {
-        if (closed) {
-            throw new RuntimeException("adcp pool is already close");
-        }
-
-        long spend = 0;
-        long startTime = System.currentTimeMillis();
-        long endTime = startTime;
-        long timeout = config.getBorrowTimeoutMs();
-
-        pendingThreads.put(Thread.currentThread(), startTime);
-
-        while (spend <= timeout) {
-            Pair<Pool.NodeType, Pool<ProxyConnection>.Node> result = pool.tryTakeIdleOrEmptyNode(
-                    timeout - spend,
-                    waitNanos -> monitor.recordWait(waitNanos / 1000));
-
-            if (result != null && result.left == Pool.NodeType.EMPTY) {
-                Pool<ProxyConnection>.Node emptyNode = result.right;
-                try {
-                    // if timeout, just throw SocketTimeoutException, don't retry
-                    ProxyConnection proxy = createFromRawConnection(emptyNode);
-                    endTime = System.currentTimeMillis();
-                    spend = endTime - startTime;
-                    monitor.recordConnectionAcquiredMs(spend);
-                    return proxy;
-                } catch (Throwable e) {
-                    monitor.recordConnectionCreateError();
-
-                    logger.error(
-                            "create raw jdbc connection exception: {}, idle: {}, active: {}\nmetrics\n{}",
-                            e.getMessage(),
-                            pool.idleCount(),
-                            pool.activeCount(),
-                            monitor);
-
-                    throw e;
-                }
-            } else if (result != null && result.left == Pool.NodeType.IDLE) {
-                ProxyConnection proxy = result.right.item;
-                Connection connection = proxy.rawConnection();
-
-                boolean isValid;
-
-                try {
-                    isValid = config.getAliveCheckPeriodMs() <= 0
-                            || proxy.getIdleMs() < config.getAliveCheckPeriodMs()
-                            || connection.isValid(config.getCheckValidationTimeoutSeconds());
-                } catch (Throwable e) {
-                    logger.error("check jdbc connection error: {}", proxy, e);
-                    isValid = false;
-                }
+    // runs on the shared housekeeper thread, never blocks borrowers: idle nodes are taken a few at a time
+    // and their raw connections closed after the nodes went back to the pool
+    private void housekeep() {
+        long start = clock.nanoTime();
+
+        try {
+            logger.info("{}, metrics\n{}", snapshot(), monitor);
+            monitor.reset();
+
+            // the pool size may have been changed on the config directly
+            if (pool.capacity() != config.getMaxPoolSize()) {
+                resize(config.getMaxPoolSize(), config.getMinIdle());
+            }
+            retireExcess();
+
+            long now = clock.coarseNanoTime();
+            long idleTimeoutNanos = TimeUnit.SECONDS.toNanos(config.getIdleTimeoutSeconds());
+            long maxLifetimeNanos = TimeUnit.SECONDS.toNanos(config.getMaxLifetimeSeconds());
+
+            // expired connections are retired even below min idle, the filler replaces them.
+            // a max lifetime lowered at runtime also applies to connections created before
+            int expired = recycleIdle(
+                    proxy -> proxy.isExpired(now) || now - proxy.getCreatedAtNanos() >= maxLifetimeNanos,
+                    () -> Integer.MAX_VALUE);
+
+            int idleTimeout = recycleIdle(
+                    proxy -> proxy.getIdleNanos() >= idleTimeoutNanos,
+                    () -> pool.waiterCount() == 0 ? pool.idleCount() - config.getMinIdle() : 0);
+
+            if (expired + idleTimeout > 0) {
+                logger.info("recycled {} idle connections, {} reached max lifetime", expired + idleTimeout, expired);
+            }
+
+            fillIfNeeded();
+        } catch (Throwable e) {
+            logger.error("housekeeping error", e);
+        } finally {
+            monitor.recordHousekeepingNanos(clock.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Changes the pool size while it runs. Growing adds empty nodes the filler fills on demand,
+     * shrinking closes idle connections above the new size right away and busy ones when they
+     * are given back, nobody's work is interrupted.
+     */
+    public synchronized void resize(int maxPoolSize, int minIdle) {
+        if (maxPoolSize < 1 || minIdle < 0 || minIdle > maxPoolSize) {
+            throw new IllegalArgumentException("invalid pool size, maxPoolSize: " + maxPoolSize + ", minIdle: " + minIdle);
+        }
+
+        if (pool.capacity() != maxPoolSize || config.getMinIdle() != minIdle) {
+            logger.info("{} - resize from maxPoolSize {}, minIdle {} to maxPoolSize {}, minIdle {}",
+                    config.getPoolName(), pool.capacity(), config.getMinIdle(), maxPoolSize, minIdle);
+        }
+
+        // the config first, so the filler never creates beyond the smaller size
+        config.setMinIdle(minIdle);
+        config.setMaxPoolSize(maxPoolSize);
+        pool.resize(maxPoolSize);
+
+        retireExcess();
+        fillIfNeeded();
+    }
+
+    // runs on the housekeeper thread, connections above a lowered limit stay idle until it rises again
+    // or they time out
+    private void updateConcurrencyLimit() {
+        try {
+            int limit = concurrencyLimit.update(
+                    pool.waiterCount(), Math.max(1, config.getMinIdle()), config.getMaxPoolSize());
+
+            if (limit != pool.limit()) {
+                pool.setLimit(limit);
+                fillIfNeeded();
+            }
+        } catch (Throwable e) {
+            logger.error("adaptive limit error", e);
+        }
+    }
+
+    public AdaptiveConcurrencyLimit getConcurrencyLimit() {
+        return concurrencyLimit;
+    }
+
+    // closes idle connections of nodes above the pool size, busy ones are closed when given back
+    private void retireExcess() {
+        List<Pool<ProxyConnection>.Node> batch = new ArrayList<>(RECYCLE_BATCH_SIZE);
+        int retired = 0;
+
+        do {
+            batch.clear();
+            pool.takeRetiredIdleNodes(RECYCLE_BATCH_SIZE, batch);
+
+            for (Pool<ProxyConnection>.Node node : batch) {
+                Connection connection = node.item.rawConnection();
+                node.item.reset();
+                pool.returnEmptyNode(node);
+                closeJdbcConnection(connection);
+            }
+
+            retired += batch.size();
+        } while (batch.size() == RECYCLE_BATCH_SIZE);
+
+        if (retired > 0) {
+            logger.info("{} - closed {} idle connections above the pool size", config.getPoolName(), retired);
+        }
+    }
+
+    private int recycleIdle(Predicate<ProxyConnection> needRecycle, IntSupplier maxCount) {
+        List<Pool<ProxyConnection>.Node> batch = new ArrayList<>(RECYCLE_BATCH_SIZE);
+        int recycled = 0;
+
+        while (!closed.get()) {
+            int count = Math.min(RECYCLE_BATCH_SIZE, maxCount.getAsInt());
+            if (count <= 0) {
+                break;
+            }
+
+            batch.clear();
+            pool.takeIdleNodes(needRecycle, count, batch);
+
+            for (Pool<ProxyConnection>.Node node : batch) {
+                Connection connection = node.item.rawConnection();
+                node.item.reset();
+                pool.returnEmptyNode(node);
+                closeJdbcConnection(connection);
+            }
 
-                if (isValid) {
-                    proxy.setUsingBy(Thread.currentThread());
-                    pendingThreads.remove(Thread.currentThread());
-                    endTime = System.currentTimeMillis();
-                    spend = endTime - startTime;
-                    monitor.recordConnectionAcquiredMs(spend);
-                    return proxy;
-                } else {
-                    pool.destroyActive(result.right, ProxyConnection::reset);
+            recycled += batch.size();
+
+            if (batch.size() < count) {
+                break;
+            }
+        }
+
+        return recycled;
+    }
+
+    // runs on the shared housekeeper thread: picks idle connections nobody used or validated for a keepalive
+    // interval, a few at a time, and pings them on the filler so the shared thread never waits for a
+    // round trip. borrowers can skip the inline check and dead ones are replaced early
+    private void keepalive() {
+        if (closed.get() || !keepaliveRunning.compareAndSet(false, true)) {
+            // the previous run is still validating
+            return;
+        }
+
+        List<Pool<ProxyConnection>.Node> batch = null;
+
+        try {
+            int limit = Math.max(1, config.getMaxPoolSize() / 2);
+            batch = takeKeepaliveBatch(limit);
+
+            if (batch.isEmpty()) {
+                keepaliveRunning.set(false);
+                return;
+            }
+
+            List<Pool<ProxyConnection>.Node> first = batch;
+            fillExecutor.execute(() -> validateKeepalive(first, limit));
+        } catch (RejectedExecutionException e) {
+            // shut down meanwhile, the pool skipped the reserved nodes, close them here
+            for (Pool<ProxyConnection>.Node node : batch) {
+                Connection connection = node.item.rawConnection();
+                node.item.reset();
+                pool.returnEmptyNode(node);
+                closeJdbcConnection(connection);
+            }
+            keepaliveRunning.set(false);
+        } catch (Throwable e) {
+            keepaliveRunning.set(false);
+            logger.error("keepalive error", e);
+        }
+    }
+
+    private List<Pool<ProxyConnection>.Node> takeKeepaliveBatch(int remaining) {
+        long keepaliveNanos = TimeUnit.MILLISECONDS.toNanos(config.getKeepaliveIntervalMs());
+        List<Pool<ProxyConnection>.Node> batch = new ArrayList<>(KEEPALIVE_BATCH_SIZE);
+
+        if (!closed.get()) {
+            pool.takeIdleNodes(
+                    proxy -> proxy.getUnverifiedNanos() >= keepaliveNanos,
+                    Math.min(KEEPALIVE_BATCH_SIZE, remaining),
+                    batch);
+        }
+        return batch;
+    }
+
+    // runs on the filler, a batch at a time so the others stay idle for borrowers meanwhile
+    private void validateKeepalive(List<Pool<ProxyConnection>.Node> batch, int limit) {
+        int checked = 0;
+        int invalid = 0;
+
+        try {
+            while (true) {
+                for (Pool<ProxyConnection>.Node node : batch) {
+                    ProxyConnection proxy = node.item;
+
+                    // a pool shut down meanwhile skipped the reserved node, close it here
+                    if (isAlive(proxy) && !closed.get()) {
+                        proxy.setValidated(clock.coarseNanoTime());
+                        pool.pushToIdle(node);
+                        continue;
+                    }
+
+                    Connection connection = proxy.rawConnection();
+                    proxy.reset();
+                    pool.returnEmptyNode(node);
                     closeJdbcConnection(connection);
                     monitor.recordInvalidConnection();
+                    invalidCount.incrementAndGet();
+                    ++invalid;
+                }
 
-                    logger.warn("jdbc connection {} is invalid, close it", proxy);
+                checked += batch.size();
+
+                if (batch.size() < KEEPALIVE_BATCH_SIZE || checked >= limit) {
+                    break;
                 }
+
+                batch = takeKeepaliveBatch(limit - checked);
+            }
+
+            if (invalid > 0) {
+                logger.warn("keepalive closed {} invalid idle connections", invalid);
+                fillIfNeeded();
+            }
+        } catch (Throwable e) {
+            logger.error("keepalive error", e);
+        } finally {
+            keepaliveRunning.set(false);
+        }
+    }
+
+    private boolean isAlive(ProxyConnection proxy) {
+        Connection connection = proxy.rawConnection();
+        int timeoutMs = config.getValidationTimeoutMs();
+        long start = clock.nanoTime();
+
+        try {
+            if (!networkTimeoutSupported) {
+                return validator.isValid(connection, timeoutMs);
+            }
+
+            int networkTimeout = getNetworkTimeout(connection);
+
+            if (networkTimeout < 0) {
+                return validator.isValid(connection, timeoutMs);
+            }
+
+            // a dead peer fails the validation after the timeout instead of blocking on the socket
+            connection.setNetworkTimeout(DIRECT_EXECUTOR, timeoutMs);
+
+            try {
+                return validator.isValid(connection, timeoutMs);
+            } finally {
+                connection.setNetworkTimeout(DIRECT_EXECUTOR, networkTimeout);
             }
+        } catch (Throwable e) {
+            logger.error("check jdbc connection error: {}", proxy, e);
+            return false;
+        } finally {
+            monitor.recordValidationNanos(clock.nanoTime() - start);
+        }
+    }
+
+    // -1 when the driver has no network timeout
+    private int getNetworkTimeout(Connection connection) throws SQLException {
+        try {
+            return connection.getNetworkTimeout();
+        } catch (SQLFeatureNotSupportedException | AbstractMethodError e) {
+            networkTimeoutSupported = false;
+            logger.warn("{} has no network timeout, validation is only bounded by the validator", connection);
+            return -1;
+        }
+    }
+
+    public ProxyConnection borrow() throws SQLException {
+        return borrow(config.getBorrowTimeoutMs(), TimeUnit.MILLISECONDS);
+    }
 
-            endTime = System.currentTimeMillis();
-            spend = endTime - startTime;
+    public ProxyConnection borrow(long timeout, TimeUnit unit) throws SQLException {
+        if (closed.get()) {
+            throw new SQLException("adcp pool is already close");
         }
 
+        long startNanos = clock.nanoTime();
+        long deadline = startNanos + unit.toNanos(timeout);
+        long aliveCheckNanos = TimeUnit.MILLISECONDS.toNanos(config.getAliveCheckPeriodMs());
+
+        do {
+            Pool<ProxyConnection>.Node node;
+
+            // while the circuit breaker is open nothing gets created, waiting only helps when others give back
+            boolean breakerClosed = circuitBreaker.isClosed();
+
+            try {
+                node = pool.tryTakeIdleNode(breakerClosed ? deadline : clock.nanoTime(), waitRecorder, fillRequest);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("interrupted while waiting for a connection", e);
+            }
+
+            if (node == null) {
+                if (!breakerClosed) {
+                    throw new SQLTransientConnectionException(
+                            "no idle connection and " + circuitBreaker + " after failing to connect, "
+                                    + snapshot(),
+                            lastCreateError);
+                }
+                break;
+            }
+
+            ProxyConnection proxy = node.item;
+            Connection connection = proxy.rawConnection();
+
+            // only connections nobody used or validated lately are checked inline
+            boolean isValid = aliveCheckNanos <= 0
+                    || proxy.getUnverifiedNanos() < aliveCheckNanos
+                    || isAlive(proxy);
+
+            if (isValid) {
+                long now = clock.nanoTime();
+                Thread current = Thread.currentThread();
+                // only for the timeout report, not worth keeping one of millions of virtual threads reachable
+                proxy.setUsingBy(VirtualThreads.isVirtual(current) ? null : current, now);
+                monitor.recordConnectionAcquiredNanos(now - startNanos);
+                return proxy;
+            }
+
+            if (pool.destroyActive(node, ProxyConnection::reset)) {
+                closeJdbcConnection(connection);
+                monitor.recordInvalidConnection();
+                invalidCount.incrementAndGet();
+
+                logger.warn("jdbc connection {} is invalid, close it", proxy);
+            }
+
+            fillIfNeeded();
+        } while (deadline - clock.nanoTime() > 0);
+
         monitor.recordConnectionTimeout();
-        pendingThreads.remove(Thread.currentThread());
-        throw new SQLTransientConnectionException(createTimeoutError(endTime, spend));
+        timeoutCount.incrementAndGet();
+        long now = clock.nanoTime();
+        throw new SQLTransientConnectionException(
+                createTimeoutError(now, TimeUnit.NANOSECONDS.toMillis(now - startNanos), unit.toMillis(timeout)),
+                lastCreateError);
     }
 
-    private String createTimeoutError(long endTime, long spendMs) {
+    /**
+     * Borrows without blocking: the future completes on the thread that gives back a connection, or on a
+     * creation thread, so dependent stages should use the async variants to leave these threads alone.
+     * Cancelling the future or the timeout removes the borrower from the queue.
+     */
+    public CompletableFuture<Connection> borrowAsync(long timeout, TimeUnit unit) {
+        CompletableFuture<Connection> future = new CompletableFuture<>();
+
+        if (closed.get()) {
+            future.completeExceptionally(new SQLException("adcp pool is already close"));
+            return future;
+        }
+
+        long startNanos = clock.nanoTime();
+        new AsyncBorrow(future, startNanos, startNanos + unit.toNanos(timeout)).start();
+        return future;
+    }
+
+    private final class AsyncBorrow implements Consumer<Pool<ProxyConnection>.Node>, Runnable {
+        private final CompletableFuture<Connection> future;
+        private final long startNanos;
+        private final long deadline;
+        private volatile Pool<ProxyConnection>.AsyncWaiter waiter;
+        private volatile ScheduledFuture<?> timeout;
+        private long waitStartNanos;
+
+        AsyncBorrow(CompletableFuture<Connection> future, long startNanos, long deadline) {
+            this.future = future;
+            this.startNanos = startNanos;
+            this.deadline = deadline;
+
+            // whoever completes it first, a borrower still queued leaves the queue
+            future.whenComplete((connection, e) -> {
+                Pool<ProxyConnection>.AsyncWaiter queued = waiter;
+                if (queued != null) {
+                    queued.cancel();
+                }
+                ScheduledFuture<?> scheduled = timeout;
+                if (scheduled != null) {
+                    scheduled.cancel(false);
+                }
+            });
+        }
+
+        void start() {
+            if (!circuitBreaker.isClosed() && pool.idleCount() == 0) {
+                future.completeExceptionally(new SQLTransientConnectionException(
+                        "no idle connection and " + circuitBreaker + " after failing to connect, " + snapshot(),
+                        lastCreateError));
+                return;
+            }
+
+            waitStartNanos = clock.nanoTime();
+            Pool<ProxyConnection>.AsyncWaiter queued = pool.tryTakeIdleNodeAsync(this, fillRequest);
+
+            if (queued == null) {
+                return;
+            }
+
+            waiter = queued;
+
+            // completed before the waiter was known to the whenComplete hook
+            if (future.isDone()) {
+                queued.cancel();
+                return;
+            }
+
+            try {
+                timeout = AdcpHousekeeper.TIMEOUTS.scheduleOnce(this, deadline - clock.nanoTime());
+            } catch (RejectedExecutionException e) {
+                // the pool is shutting down, the timeout thread may be stopped already
+                future.completeExceptionally(new SQLException("adcp pool is already close", e));
+                return;
+            }
+
+            if (future.isDone()) {
+                timeout.cancel(false);
+            }
+        }
+
+        // the node passed by a releasing thread, null when the pool is shut down
+        @Override
+        public void accept(Pool<ProxyConnection>.Node node) {
+            if (node == null) {
+                future.completeExceptionally(new SQLException("adcp pool is already close"));
+                return;
+            }
+
+            if (waiter != null) {
+                waitRecorder.accept(clock.nanoTime() - waitStartNanos);
+            }
+
+            long aliveCheckNanos = TimeUnit.MILLISECONDS.toNanos(config.getAliveCheckPeriodMs());
+
+            if (aliveCheckNanos <= 0 || node.item.getUnverifiedNanos() < aliveCheckNanos) {
+                complete(node);
+                return;
+            }
+
+            // validation is a round trip, keep it off the releasing thread
+            try {
+                fillExecutor.execute(() -> validateAndComplete(node));
+            } catch (RejectedExecutionException e) {
+                pool.giveBack(node);
+                future.completeExceptionally(new SQLException("adcp pool is already close", e));
+            }
+        }
+
+        private void validateAndComplete(Pool<ProxyConnection>.Node node) {
+            ProxyConnection proxy = node.item;
+
+            if (isAlive(proxy)) {
+                complete(node);
+                return;
+            }
+
+            Connection connection = proxy.rawConnection();
+            if (pool.destroyActive(node, ProxyConnection::reset)) {
+                closeJdbcConnection(connection);
+                monitor.recordInvalidConnection();
+                invalidCount.incrementAndGet();
+                logger.warn("jdbc connection {} is invalid, close it", proxy);
+            }
+
+            // try again with what is left of the timeout
+            if (deadline - clock.nanoTime() > 0 && !future.isDone()) {
+                // start() schedules a new timeout
+                ScheduledFuture<?> scheduled = timeout;
+                if (scheduled != null) {
+                    scheduled.cancel(false);
+                }
+                timeout = null;
+                waiter = null;
+                start();
+            } else {
+                run();
+            }
+        }
+
+        private void complete(Pool<ProxyConnection>.Node node) {
+            long now = clock.nanoTime();
+            node.item.setUsingBy(null, now);
+
+            if (future.complete(node.item)) {
+                monitor.recordConnectionAcquiredNanos(now - startNanos);
+            } else {
+                // cancelled or timed out while the node was on its way
+                pool.giveBack(node);
+            }
+        }
+
+        // timeout
+        @Override
+        public void run() {
+            long now = clock.nanoTime();
+            SQLTransientConnectionException error = new SQLTransientConnectionException(
+                    "async borrow timeout after " + TimeUnit.NANOSECONDS.toMillis(now - startNanos) + " ms, "
+                            + snapshot(),
+                    lastCreateError);
+
+            if (future.completeExceptionally(error)) {
+                monitor.recordConnectionTimeout();
+                timeoutCount.incrementAndGet();
+            }
+        }
+    }
+
+    private String createTimeoutError(long endTime, long spendMs, long timeoutMs) {
         StringBuilder builder = new StringBuilder("try get connection from pool timeout: spend ")
-                .append(spendMs).append(" ms > timeout:").append(config.getBorrowTimeoutMs())
-                .append(", active: ").append(pool.activeCount())
-                .append(", idle: ").append(pool.idleCount())
+                .append(spendMs).append(" ms > timeout:").append(timeoutMs)
+                .append(", ").append(snapshot())
                 .append("\nmetrics\n").append(monitor)
                 .append("\nusing connections\n");
 
         List<ProxyConnection> activeConnections = pool.listActiveItems();
         activeConnections.forEach(connection -> {
-            builder.append("thread ").append(connection.getUsingThread().getName())
+            Thread thread = connection.getUsingThread();
+            builder.append(thread != null ? "thread " + thread.getName() : "virtual thread or async borrower")
                     .append(" used connection ").append(connection)
-                    .append(" for ").append(endTime - connection.getStartUsingTime()).append(" ms\n");
+                    .append(" for ").append(TimeUnit.NANOSECONDS.toMillis(endTime - connection.getStartUsingNanos()))
+                    .append(" ms\n");
         });
 
         builder.append("\npending threads\n");
 
-        pendingThreads.forEach((thread, time) -> builder
+        pool.forEachWaiter((thread, startNanos) -> builder
                 .append(thread.getName())
                 .append(" wait ")
-                .append(endTime - time)
+                .append(TimeUnit.NANOSECONDS.toMillis(endTime - startNanos))
                 .append(" ms\n"));
 
         return builder.toString();
     }
 
-    private ProxyConnection createFromRawConnection(Pool<ProxyConnection>.Node activeNode) throws SQLException {
-        long start = System.currentTimeMillis();
+    // connections to create for min idle, for waiting borrowers plus the idle headroom, capped by the pool size.
+    // connections above a lowered limit don't count, borrowers can't take them and the filler must refill
+    // the slots below it that recycling emptied
+    private int connectionsWanted() {
+        int[] usable = pool.usableStateCounts();
+        int idle = usable[Pool.IDLE];
+        int active = usable[Pool.ACTIVE];
+        int creating = pendingCreations.get();
+
+        int forMinIdle = config.getMinIdle() - (idle + active + creating);
+        int forLoad = pool.waiterCount() + config.getIdleHeadroom() - (idle + creating);
+        int room = Math.min(config.getMaxPoolSize(), pool.limit()) - (idle + active + creating);
+
+        return Math.min(Math.max(forMinIdle, forLoad), room);
+    }
+
+    void fillIfNeeded() {
+        if (closed.get() || !circuitBreaker.isClosed()) {
+            return;
+        }
+
+        int wanted = connectionsWanted();
+
+        for (int i = 0; i < wanted; i++) {
+            pendingCreations.incrementAndGet();
+
+            try {
+                fillExecutor.execute(this::fillEmptyNode);
+            } catch (RejectedExecutionException e) {
+                pendingCreations.decrementAndGet();
+                return;
+            }
+        }
+    }
+
+    // runs on the housekeeper thread, the probe itself connects on the filler like any creation
+    private void probeIfOpen() {
+        if (closed.get() || !circuitBreaker.tryProbe()) {
+            return;
+        }
+
+        pendingCreations.incrementAndGet();
+
+        try {
+            fillExecutor.execute(() -> fillEmptyNode(true));
+        } catch (RejectedExecutionException e) {
+            pendingCreations.decrementAndGet();
+        }
+    }
+
+    private void fillEmptyNode() {
+        fillEmptyNode(false);
+    }
+
+    private void fillEmptyNode(boolean probe) {
+        boolean created = false;
+        boolean failed = false;
+
+        try {
+            creationRateLimiter.acquire();
+
+            // concurrent fillIfNeeded calls may have asked for more than needed, a probe creates regardless
+            if (closed.get() || (!probe && connectionsWanted() < 0)) {
+                return;
+            }
+
+            // pools sharing the budget are at their cap together, a connection closed anywhere asks again
+            if (budget != null && !budget.acquire()) {
+                if (probe) {
+                    circuitBreaker.onProbeAborted();
+                }
+                return;
+            }
+
+            Pool<ProxyConnection>.Node emptyNode = pool.reserveEmptyNode();
+
+            if (emptyNode == null) {
+                if (budget != null) {
+                    budget.returnUnused();
+                }
+
+                if (probe) {
+                    // the pool is full, there is nothing to create either way
+                    circuitBreaker.onSuccess();
+                }
+                return;
+            }
+
+            try {
+                createFromRawConnection(emptyNode);
+                created = true;
+                circuitBreaker.onSuccess();
+            } catch (Throwable e) {
+                pool.returnEmptyNode(emptyNode);
+                if (budget != null) {
+                    budget.returnUnused();
+                }
+                failed = true;
+                lastCreateError = e;
+                monitor.recordConnectionCreateError();
+                createErrorCount.incrementAndGet();
+                circuitBreaker.onFailure(e);
+
+                logger.error(
+                        "create raw jdbc connection exception: {}, {}\nmetrics\n{}",
+                        e.getMessage(),
+                        snapshot(),
+                        monitor);
+            }
+        } catch (InterruptedException e) {
+            // pool shutdown while waiting for the rate limiter
+            Thread.currentThread().interrupt();
+        } finally {
+            pendingCreations.decrementAndGet();
+        }
+
+        // more borrowers may have arrived meanwhile
+        if (created) {
+            fillIfNeeded();
+        } else if (failed) {
+            scheduleCreateRetry();
+        }
+    }
+
+    // parked borrowers ask for a connection only once, so a failed creation is tried again for them after
+    // a backoff that doubles with the failures in a row. an open circuit breaker stops it, its probes take over
+    private void scheduleCreateRetry() {
+        if (closed.get() || pool.waiterCount() == 0 || !circuitBreaker.isClosed()
+                || !createRetryScheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        int failures = Math.max(1, circuitBreaker.getConsecutiveFailures());
+        long delayMs = Math.min(CREATE_RETRY_MAX_MS, CREATE_RETRY_MIN_MS << Math.min(failures - 1, 16));
+
+        try {
+            AdcpHousekeeper.HOUSEKEEPING.scheduleOnce(this::retryCreate, TimeUnit.MILLISECONDS.toNanos(delayMs));
+        } catch (RejectedExecutionException e) {
+            createRetryScheduled.set(false);
+        }
+    }
+
+    private void retryCreate() {
+        createRetryScheduled.set(false);
+        fillIfNeeded();
+    }
+
+    private void createFromRawConnection(Pool<ProxyConnection>.Node emptyNode) throws SQLException {
+        long start = clock.nanoTime();
         Connection connection = dataSource.getConnection();
-        long spend = System.currentTimeMillis() - start;
+        long spendNanos = clock.nanoTime() - start;
+        long spend = TimeUnit.NANOSECONDS.toMillis(spendNanos);
 
-        monitor.recordConnectionCreatedMs(spend);
+        monitor.recordConnectionCreatedNanos(spendNanos);
+        if (concurrencyLimit != null) {
+            concurrencyLimit.recordCreatedNanos(spendNanos);
+        }
+        createdCount.incrementAndGet();
+        lastCreateError = null;
 
-        if (activeNode.item == null) {
-            activeNode.item = new ProxyConnection(
+        long maxLifetimeNanos = TimeUnit.SECONDS.toNanos(config.getMaxLifetimeSeconds());
+
+        if (emptyNode.item == null) {
+            StatementCache statementCache = config.getStatementCacheSize() > 0
+                    ? new StatementCache(config.getStatementCacheSize(), config.getStatementCacheSqlLimit(), monitor)
+                    : null;
+
+            emptyNode.item = new ProxyConnection(
                     connectionId.incrementAndGet(),
-                    Thread.currentThread(),
+                    null,
                     connection,
-                    () -> activeToIdle(activeNode));
+                    () -> activeToIdle(emptyNode),
+                    statementCache,
+                    clock);
         } else {
-            activeNode.item.useNewRawConnection(Thread.currentThread(), connection, () -> activeToIdle(activeNode));
+            emptyNode.item.useNewRawConnection(null, connection, () -> activeToIdle(emptyNode));
         }
 
-        pool.pushToActive(activeNode);
+        // up to 2.5% earlier, so connections created together don't all retire in the same run
+        long jitterNanos = maxLifetimeNanos > TimeUnit.SECONDS.toNanos(10)
+                ? ThreadLocalRandom.current().nextLong(maxLifetimeNanos / 40)
+                : 0;
+        emptyNode.item.setExpiresAtNanos(emptyNode.item.getCreatedAtNanos() + maxLifetimeNanos - jitterNanos);
 
         if (spend > 5000) {
-            logger.warn("created new jdbc connection: {} spend {}", activeNode.item, spend);
+            logger.warn("created new jdbc connection: {} spend {}", emptyNode.item, spend);
         } else {
-            logger.debug("created new jdbc connection: {} spend {}", activeNode.item, spend);
+            logger.debug("created new jdbc connection: {} spend {}", emptyNode.item, spend);
         }
 
-        return activeNode.item;
+        pool.pushToIdle(emptyNode);
     }
 
-    private static void closeJdbcConnection(Connection connection) {
+    private void closeJdbcConnection(Connection connection) {
+        closedCount.incrementAndGet();
+        if (budget != null) {
+            budget.release();
+        }
+        validator.onClose(connection);
         try {
             connection.close();
         } catch (SQLException e) {
@@ -234,52 +969,107 @@ public class AdcpPool implements AdcpMetrics {
     private void activeToIdle(Pool<ProxyConnection>.Node activeNode) {
         ProxyConnection connection = activeNode.item;
 
-        pool.giveBack(activeNode);
+        // before giving back, the next borrower starts a new usage
+        long usedNanos = clock.nanoTime() - connection.getStartUsingNanos();
+
+        // a shutdown running meanwhile may close the node first, then there is nothing left to close here
+        if (pool.isRetired(activeNode)) {
+            // the pool shrank while it was in use
+            Connection raw = connection.rawConnection();
+            if (pool.destroyActive(activeNode, ProxyConnection::reset)) {
+                closeJdbcConnection(raw);
+            }
+        } else if (connection.isResetFailed()) {
+            // the next borrower would get the previous session state
+            logger.warn("connection {} could not be reset on close, close it", connection);
+            Connection raw = connection.rawConnection();
+            if (pool.destroyActive(activeNode, ProxyConnection::reset)) {
+                closeJdbcConnection(raw);
+                monitor.recordInvalidConnection();
+                invalidCount.incrementAndGet();
+                fillIfNeeded();
+            }
+        } else {
+            pool.giveBack(activeNode);
+        }
 
-        long usedTime = connection.getUsedTime();
-        monitor.recordConnectionUsageMs(usedTime);
+        monitor.recordConnectionUsageNanos(usedNanos);
+        if (concurrencyLimit != null) {
+            concurrencyLimit.recordUsageNanos(usedNanos);
+        }
 
-        if (usedTime > config.getLeakDetectionThresholdSeconds() * 1000L) {
-            logger.warn("connection {} used for {} seconds", connection, usedTime / 1000);
+        if (usedNanos > TimeUnit.SECONDS.toNanos(config.getLeakDetectionThresholdSeconds())) {
+            logger.warn("connection {} used for {} seconds", connection, TimeUnit.NANOSECONDS.toSeconds(usedNanos));
         }
     }
 
-    public AdcpPoolConfig getConfig() {
-        return config;
+    boolean isClosed() {
+        return closed.get();
     }
 
-    public DataSource getUnwrappedDataSource() {
-        return this.dataSource;
+    boolean hasWaiters() {
+        return pool.waiterCount() > 0;
     }
 
-    @Override
-    public int getIdleConnectionCount() {
-        return this.pool.idleCount();
+    // nothing borrowed, waited for or being created, shutting down now loses no work
+    boolean isUnused() {
+        return pool.activeCount() == 0 && pool.waiterCount() == 0 && pendingCreations.get() == 0;
     }
 
-    @Override
-    public int getActiveConnectionCount() {
-        return pool.activeCount();
+    // how long the least recently used idle connection is idle, -1 without idle connections
+    long oldestIdleNanos() {
+        long oldest = -1;
+        for (ProxyConnection connection : pool.listIdleItems()) {
+            oldest = Math.max(oldest, connection.getIdleNanos());
+        }
+        return oldest;
     }
 
-    @Override
-    public int getTotalConnectionCount() {
-        return pool.idleCount() + pool.activeCount();
+    // closes one idle connection that is idle at least that long, to make room for another pool
+    boolean closeIdleConnection(long minIdleNanos) {
+        List<Pool<ProxyConnection>.Node> taken = new ArrayList<>(1);
+        pool.takeIdleNodes(proxy -> proxy.getIdleNanos() >= minIdleNanos, 1, taken);
+
+        for (Pool<ProxyConnection>.Node node : taken) {
+            Connection connection = node.item.rawConnection();
+            node.item.reset();
+            pool.returnEmptyNode(node);
+            closeJdbcConnection(connection);
+        }
+
+        return !taken.isEmpty();
     }
 
-    @Override
-    public int getPendingThreadCount() {
-        return pendingThreads.size();
+    Pool<ProxyConnection> getPool() {
+        return pool;
     }
 
-    @Override
-    public int getMaxConnectionCount() {
-        return config.getMaxPoolSize();
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public AdcpPoolConfig getConfig() {
+        return config;
+    }
+
+    public DataSource getUnwrappedDataSource() {
+        return this.dataSource;
     }
 
     @Override
-    public int getMinConnectionCount() {
-        return config.getMinIdle();
+    public PoolStatistic snapshot() {
+        return new PoolStatistic(
+                pool.stateCounts(),
+                pool.waiterCount(),
+                pendingCreations.get(),
+                config.getMaxPoolSize(),
+                config.getMinIdle(),
+                pool.limit(),
+                createdCount.get(),
+                closedCount.get(),
+                createErrorCount.get(),
+                invalidCount.get(),
+                timeoutCount.get());
     }
 
     @Override
@@ -1,16 +1,68 @@
 package com.fishqq.adcp;
 
-public class AdcpPoolConfig {
+import java.util.concurrent.Executor;
+
+/**
+ * Settings of one pool. The volatile ones are read by the running pool on every use, so timeouts,
+ * lifetimes and the validation settings can be changed without a restart. A changed pool size is
+ * applied by the next housekeeping run, {@link AdcpDataSource#resize(int, int)} applies it at once.
+ * Everything else is read when the pool starts.
+ */
+public class AdcpPoolConfig implements Cloneable {
     private String poolName = "adcp-connection-pool";
-    private int maxPoolSize = 32;
-    private int minIdle = 2;
-    private long borrowTimeoutMs = 30 * 1000;
-    private int idleTimeoutSeconds = 180;
+    private volatile int maxPoolSize = 32;
+    private volatile int minIdle = 2;
+    // idle connections the filler keeps ready under load, on top of the waiting borrowers
+    private volatile int idleHeadroom = 0;
+    private volatile long borrowTimeoutMs = 30 * 1000;
+    private volatile int idleTimeoutSeconds = 180;
     private int recyclePeriodSeconds = 60;
-    private int checkValidationTimeoutSeconds = 10;
-    private long aliveCheckPeriodMs = 500;
-    private int maxLifetimeSeconds = 15 * 60;
-    private int leakDetectionThresholdSeconds = 60;
+    private volatile int checkValidationTimeoutSeconds = 10;
+    // overrides checkValidationTimeoutSeconds when > 0
+    private volatile int validationTimeoutMs = 0;
+    // null uses a QueryConnectionValidator when validationQuery is set, otherwise Connection.isValid
+    private ConnectionValidator connectionValidator;
+    private String validationQuery;
+    // a borrowed connection not known to work for this long is checked inline with isValid, 0 always trusts it
+    private volatile long aliveCheckPeriodMs = 500;
+    // idle connections not known to work for this long are validated in the background, 0 disables.
+    // keep it below aliveCheckPeriodMs, so borrowers find them already checked
+    private long keepaliveIntervalMs = 0;
+    private volatile int maxLifetimeSeconds = 15 * 60;
+    private volatile int leakDetectionThresholdSeconds = 60;
+    private boolean threadAffinityEnabled = true;
+    private int maxConcurrentCreations = 2;
+    // runs connection creation, still at most maxConcurrentCreations at a time. null uses threads of the pool
+    private Executor creationExecutor;
+    // 0 means no limit
+    private double maxCreationsPerSecond = 0;
+    private boolean fairHandoffEnabled = false;
+    // slices of the pool each thread scans first, by thread hash, before it takes from the others.
+    // spreads many cores over different connections, 1 lets all threads start at the same one
+    private int stripes = 1;
+    // creations failing in a row before borrowers fail fast, 0 disables the circuit breaker
+    private int circuitBreakerFailureThreshold = 0;
+    // how long an open circuit breaker waits before it lets one creation through to probe the database
+    private long circuitBreakerProbeIntervalMs = 1000;
+    // prepared statements cached per connection, 0 disables the cache
+    private int statementCacheSize = 0;
+    // longer sql is prepared without caching
+    private int statementCacheSqlLimit = 2048;
+    private AdcpClock clock = AdcpClock.SYSTEM;
+    // idle and lifetime ages read a clock cached every tick instead of calling it, 0 disables
+    private long coarseClockTickMs = 0;
+    // how often an AdaptiveConcurrencyLimit adjusts the connections in use between minIdle and maxPoolSize, 0 disables
+    private long adaptiveLimitIntervalMs = 0;
+    // every that many intervals one runs at a quarter of the limit to measure the no-load usage time again,
+    // borrowers wait more in it. 0 never probes, the limit then can't follow a database that got slower for good
+    private int adaptiveLimitProbeIntervals = AdaptiveConcurrencyLimit.DEFAULT_PROBE_INTERVALS;
+    // pools opened by getConnection(username, password), one per credential, 0 rejects such calls
+    private int maxCredentialPools = 0;
+    // a credential pool nobody borrowed from for this long is closed
+    private int credentialPoolIdleTimeoutSeconds = 300;
+    // raw connections of the pool and its credential pools together, idle ones of the least recently
+    // used credential make room when it is reached. 0 only limits each pool to maxPoolSize
+    private int maxTotalConnections = 0;
 
     public String getPoolName() {
         return poolName;
@@ -36,6 +88,14 @@ public class AdcpPoolConfig {
         this.minIdle = minIdle;
     }
 
+    public int getIdleHeadroom() {
+        return idleHeadroom;
+    }
+
+    public void setIdleHeadroom(int idleHeadroom) {
+        this.idleHeadroom = idleHeadroom;
+    }
+
     public long getBorrowTimeoutMs() {
         return borrowTimeoutMs;
     }
@@ -60,6 +120,30 @@ public class AdcpPoolConfig {
         this.recyclePeriodSeconds = recyclePeriodSeconds;
     }
 
+    public int getValidationTimeoutMs() {
+        return validationTimeoutMs > 0 ? validationTimeoutMs : checkValidationTimeoutSeconds * 1000;
+    }
+
+    public void setValidationTimeoutMs(int validationTimeoutMs) {
+        this.validationTimeoutMs = validationTimeoutMs;
+    }
+
+    public ConnectionValidator getConnectionValidator() {
+        return connectionValidator;
+    }
+
+    public void setConnectionValidator(ConnectionValidator connectionValidator) {
+        this.connectionValidator = connectionValidator;
+    }
+
+    public String getValidationQuery() {
+        return validationQuery;
+    }
+
+    public void setValidationQuery(String validationQuery) {
+        this.validationQuery = validationQuery;
+    }
+
     public long getAliveCheckPeriodMs() {
         return aliveCheckPeriodMs;
     }
@@ -76,6 +160,14 @@ public class AdcpPoolConfig {
         this.checkValidationTimeoutSeconds = checkValidationTimeoutSeconds;
     }
 
+    public long getKeepaliveIntervalMs() {
+        return keepaliveIntervalMs;
+    }
+
+    public void setKeepaliveIntervalMs(long keepaliveIntervalMs) {
+        this.keepaliveIntervalMs = keepaliveIntervalMs;
+    }
+
     public int getMaxLifetimeSeconds() {
         return maxLifetimeSeconds;
     }
@@ -92,19 +184,185 @@ public class AdcpPoolConfig {
         this.leakDetectionThresholdSeconds = leakDetectionThresholdSeconds;
     }
 
+    public boolean isThreadAffinityEnabled() {
+        return threadAffinityEnabled;
+    }
+
+    public void setThreadAffinityEnabled(boolean threadAffinityEnabled) {
+        this.threadAffinityEnabled = threadAffinityEnabled;
+    }
+
+    public boolean isFairHandoffEnabled() {
+        return fairHandoffEnabled;
+    }
+
+    public void setFairHandoffEnabled(boolean fairHandoffEnabled) {
+        this.fairHandoffEnabled = fairHandoffEnabled;
+    }
+
+    public int getStripes() {
+        return stripes;
+    }
+
+    public void setStripes(int stripes) {
+        this.stripes = stripes;
+    }
+
+    public int getMaxConcurrentCreations() {
+        return maxConcurrentCreations;
+    }
+
+    public void setMaxConcurrentCreations(int maxConcurrentCreations) {
+        this.maxConcurrentCreations = maxConcurrentCreations;
+    }
+
+    public double getMaxCreationsPerSecond() {
+        return maxCreationsPerSecond;
+    }
+
+    public void setMaxCreationsPerSecond(double maxCreationsPerSecond) {
+        this.maxCreationsPerSecond = maxCreationsPerSecond;
+    }
+
+    public Executor getCreationExecutor() {
+        return creationExecutor;
+    }
+
+    public void setCreationExecutor(Executor creationExecutor) {
+        this.creationExecutor = creationExecutor;
+    }
+
+    public int getCircuitBreakerFailureThreshold() {
+        return circuitBreakerFailureThreshold;
+    }
+
+    public void setCircuitBreakerFailureThreshold(int circuitBreakerFailureThreshold) {
+        this.circuitBreakerFailureThreshold = circuitBreakerFailureThreshold;
+    }
+
+    public long getCircuitBreakerProbeIntervalMs() {
+        return circuitBreakerProbeIntervalMs;
+    }
+
+    public void setCircuitBreakerProbeIntervalMs(long circuitBreakerProbeIntervalMs) {
+        this.circuitBreakerProbeIntervalMs = circuitBreakerProbeIntervalMs;
+    }
+
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    public void setStatementCacheSize(int statementCacheSize) {
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    public int getStatementCacheSqlLimit() {
+        return statementCacheSqlLimit;
+    }
+
+    public void setStatementCacheSqlLimit(int statementCacheSqlLimit) {
+        this.statementCacheSqlLimit = statementCacheSqlLimit;
+    }
+
+    public AdcpClock getClock() {
+        return clock;
+    }
+
+    public void setClock(AdcpClock clock) {
+        this.clock = clock;
+    }
+
+    public long getCoarseClockTickMs() {
+        return coarseClockTickMs;
+    }
+
+    public void setCoarseClockTickMs(long coarseClockTickMs) {
+        this.coarseClockTickMs = coarseClockTickMs;
+    }
+
+    public int getMaxCredentialPools() {
+        return maxCredentialPools;
+    }
+
+    public void setMaxCredentialPools(int maxCredentialPools) {
+        this.maxCredentialPools = maxCredentialPools;
+    }
+
+    public int getCredentialPoolIdleTimeoutSeconds() {
+        return credentialPoolIdleTimeoutSeconds;
+    }
+
+    public void setCredentialPoolIdleTimeoutSeconds(int credentialPoolIdleTimeoutSeconds) {
+        this.credentialPoolIdleTimeoutSeconds = credentialPoolIdleTimeoutSeconds;
+    }
+
+    public int getMaxTotalConnections() {
+        return maxTotalConnections;
+    }
+
+    public void setMaxTotalConnections(int maxTotalConnections) {
+        this.maxTotalConnections = maxTotalConnections;
+    }
+
+    public long getAdaptiveLimitIntervalMs() {
+        return adaptiveLimitIntervalMs;
+    }
+
+    public void setAdaptiveLimitIntervalMs(long adaptiveLimitIntervalMs) {
+        this.adaptiveLimitIntervalMs = adaptiveLimitIntervalMs;
+    }
+
+    public int getAdaptiveLimitProbeIntervals() {
+        return adaptiveLimitProbeIntervals;
+    }
+
+    public void setAdaptiveLimitProbeIntervals(int adaptiveLimitProbeIntervals) {
+        this.adaptiveLimitProbeIntervals = adaptiveLimitProbeIntervals;
+    }
+
+    // shallow, validator, executor and clock instances are shared with the copy
+    AdcpPoolConfig copy() {
+        try {
+            return (AdcpPoolConfig) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     @Override
     public String toString() {
         return "AdcpPoolConfig{" +
                 "poolName='" + poolName + '\'' +
                 ", maxPoolSize=" + maxPoolSize +
                 ", minIdle=" + minIdle +
+                ", idleHeadroom=" + idleHeadroom +
                 ", borrowTimeoutMs=" + borrowTimeoutMs +
                 ", idleTimeoutSeconds=" + idleTimeoutSeconds +
                 ", recyclePeriodSeconds=" + recyclePeriodSeconds +
                 ", aliveCheckPeriodMs=" + aliveCheckPeriodMs +
+                ", keepaliveIntervalMs=" + keepaliveIntervalMs +
                 ", checkValidationTimeoutSeconds=" + checkValidationTimeoutSeconds +
+                ", validationTimeoutMs=" + validationTimeoutMs +
+                ", connectionValidator=" + connectionValidator +
+                ", validationQuery='" + validationQuery + '\'' +
                 ", leakDetectionThresholdSeconds=" + leakDetectionThresholdSeconds +
                 ", maxLifetimeSeconds=" + maxLifetimeSeconds +
+                ", threadAffinityEnabled=" + threadAffinityEnabled +
+                ", fairHandoffEnabled=" + fairHandoffEnabled +
+                ", stripes=" + stripes +
+                ", maxConcurrentCreations=" + maxConcurrentCreations +
+                ", maxCreationsPerSecond=" + maxCreationsPerSecond +
+                ", creationExecutor=" + creationExecutor +
+                ", circuitBreakerFailureThreshold=" + circuitBreakerFailureThreshold +
+                ", circuitBreakerProbeIntervalMs=" + circuitBreakerProbeIntervalMs +
+                ", statementCacheSize=" + statementCacheSize +
+                ", statementCacheSqlLimit=" + statementCacheSqlLimit +
+                ", coarseClockTickMs=" + coarseClockTickMs +
+                ", adaptiveLimitIntervalMs=" + adaptiveLimitIntervalMs +
+                ", adaptiveLimitProbeIntervals=" + adaptiveLimitProbeIntervals +
+                ", maxCredentialPools=" + maxCredentialPools +
+                ", credentialPoolIdleTimeoutSeconds=" + credentialPoolIdleTimeoutSeconds +
+                ", maxTotalConnections=" + maxTotalConnections +
                 '}';
     }
 }
@@ -0,0 +1,64 @@
+package com.fishqq.adcp;
+
+public class AdcpRoutingConfig {
+    private String name = "adcp-routing";
+    // how often replica health is evaluated on the shared housekeeper
+    private long healthCheckIntervalMs = 1000;
+    // create errors plus invalid connections of a replica within one interval that eject it
+    private int ejectionErrorThreshold = 3;
+    // an ejected replica gets no reads for this long, then it is taken back if it stopped failing
+    private long ejectionMs = 30 * 1000;
+    // read only borrows go to the primary while every replica is ejected, otherwise they fail
+    private boolean fallbackToPrimary = true;
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public long getHealthCheckIntervalMs() {
+        return healthCheckIntervalMs;
+    }
+
+    public void setHealthCheckIntervalMs(long healthCheckIntervalMs) {
+        this.healthCheckIntervalMs = healthCheckIntervalMs;
+    }
+
+    public int getEjectionErrorThreshold() {
+        return ejectionErrorThreshold;
+    }
+
+    public void setEjectionErrorThreshold(int ejectionErrorThreshold) {
+        this.ejectionErrorThreshold = ejectionErrorThreshold;
+    }
+
+    public long getEjectionMs() {
+        return ejectionMs;
+    }
+
+    public void setEjectionMs(long ejectionMs) {
+        this.ejectionMs = ejectionMs;
+    }
+
+    public boolean isFallbackToPrimary() {
+        return fallbackToPrimary;
+    }
+
+    public void setFallbackToPrimary(boolean fallbackToPrimary) {
+        this.fallbackToPrimary = fallbackToPrimary;
+    }
+
+    @Override
+    public String toString() {
+        return "AdcpRoutingConfig{" +
+                "name='" + name + '\'' +
+                ", healthCheckIntervalMs=" + healthCheckIntervalMs +
+                ", ejectionErrorThreshold=" + ejectionErrorThreshold +
+                ", ejectionMs=" + ejectionMs +
+                ", fallbackToPrimary=" + fallbackToPrimary +
+                '}';
+    }
+}
@@ -0,0 +1,413 @@
+package com.fishqq.adcp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientConnectionException;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Routes borrows between one primary and its read replicas, each with its own {@link AdcpDataSource}.
+ * A read only borrow goes to the less loaded of two random healthy replicas (power of two choices on
+ * the borrows outstanding per replica), everything else goes to the primary.
+ * <p>
+ * {@link #getConnection()} borrows lazily: {@code setReadOnly(true)} before the first other call
+ * routes the connection to a replica, so framework managed read only transactions spread over the
+ * replicas without changes. A replica whose create errors plus invalid connections reach the
+ * threshold within one health check, or whose circuit breaker is not closed, is ejected for a while.
+ * The health check runs on the housekeeper thread all pools share. The routing data source owns
+ * the data sources and closes them.
+ */
+public class AdcpRoutingDataSource implements DataSource, Closeable {
+    private final AdcpRoutingConfig config;
+    private final Target primary;
+    private final Target[] replicas;
+    private final ScheduledFuture<?> healthCheck;
+    private volatile boolean isClosed = false;
+
+    private static final Logger logger = LoggerFactory.getLogger(AdcpRoutingDataSource.class);
+
+    private static final class Target {
+        final AdcpDataSource dataSource;
+        // borrows in flight, waiting ones included, decremented when the connection is closed
+        final AtomicInteger outstanding = new AtomicInteger(0);
+        volatile boolean ejected = false;
+
+        // only touched by the health check
+        long lastErrors;
+        long ejectedAtNanos;
+
+        Target(AdcpDataSource dataSource) {
+            this.dataSource = dataSource;
+            this.lastErrors = errors(dataSource.getMetrics().snapshot());
+        }
+
+        String name() {
+            return dataSource.getPool().getConfig().getPoolName();
+        }
+    }
+
+    public AdcpRoutingDataSource(AdcpDataSource primary, List<AdcpDataSource> replicas) {
+        this(new AdcpRoutingConfig(), primary, replicas);
+    }
+
+    public AdcpRoutingDataSource(AdcpRoutingConfig config, AdcpDataSource primary, List<AdcpDataSource> replicas) {
+        logger.info("{} - Starting with {} replicas...\n{}", config.getName(), replicas.size(), config);
+        this.config = config;
+        this.primary = new Target(primary);
+        this.replicas = new Target[replicas.size()];
+
+        for (int i = 0; i < this.replicas.length; i++) {
+            this.replicas[i] = new Target(replicas.get(i));
+        }
+
+        this.healthCheck = this.replicas.length > 0
+                ? AdcpHousekeeper.HOUSEKEEPING.schedule(this::checkHealth,
+                config.getHealthCheckIntervalMs(), config.getHealthCheckIntervalMs())
+                : null;
+    }
+
+    private static long errors(PoolStatistic statistic) {
+        return statistic.getCreateErrorTotal() + statistic.getInvalidTotal();
+    }
+
+    private void checkHealth() {
+        long now = System.nanoTime();
+        long ejectionNanos = TimeUnit.MILLISECONDS.toNanos(config.getEjectionMs());
+
+        for (Target replica : replicas) {
+            try {
+                long errors = errors(replica.dataSource.getMetrics().snapshot());
+                long newErrors = errors - replica.lastErrors;
+                replica.lastErrors = errors;
+
+                boolean failing = newErrors >= config.getEjectionErrorThreshold()
+                        || !replica.dataSource.getCircuitBreaker().isClosed()
+                        || replica.dataSource.isClosed();
+
+                if (failing) {
+                    // still failing restarts the ejection period
+                    replica.ejectedAtNanos = now;
+
+                    if (!replica.ejected) {
+                        replica.ejected = true;
+                        logger.warn("{} - replica {} ejected, {} errors since last check, {}",
+                                config.getName(), replica.name(), newErrors, replica.dataSource.getCircuitBreaker());
+                    }
+                } else if (replica.ejected && now - replica.ejectedAtNanos >= ejectionNanos) {
+                    replica.ejected = false;
+                    logger.info("{} - replica {} is back", config.getName(), replica.name());
+                }
+            } catch (Throwable e) {
+                logger.error("{} - health check of replica {} failed", config.getName(), replica.name(), e);
+            }
+        }
+    }
+
+    /**
+     * A connection that borrows on first use, from a replica when {@code setReadOnly(true)} was
+     * called before, otherwise from the primary.
+     */
+    @Override
+    public Connection getConnection() throws SQLException {
+        checkOpen();
+
+        return (Connection) Proxy.newProxyInstance(
+                AdcpRoutingDataSource.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                new RoutingConnection());
+    }
+
+    // borrows right away, read only connections from a replica
+    public Connection getConnection(boolean readOnly) throws SQLException {
+        checkOpen();
+
+        RoutingConnection routing = new RoutingConnection();
+        routing.readOnly = readOnly;
+        routing.route();
+
+        return (Connection) Proxy.newProxyInstance(
+                AdcpRoutingDataSource.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                routing);
+    }
+
+    private void checkOpen() throws SQLException {
+        if (isClosed) {
+            throw new SQLException("AdcpRoutingDataSource " + config.getName() + " has been closed.");
+        }
+    }
+
+    private Target chooseReplica() throws SQLException {
+        int count = replicas.length;
+
+        if (count > 0) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            Target first = replicas[random.nextInt(count)];
+
+            if (count == 1) {
+                if (!first.ejected) {
+                    return first;
+                }
+            } else {
+                int index = random.nextInt(count - 1);
+                Target second = replicas[index];
+
+                // a distinct second choice
+                if (second == first) {
+                    second = replicas[count - 1];
+                }
+
+                if (!first.ejected && !second.ejected) {
+                    return first.outstanding.get() <= second.outstanding.get() ? first : second;
+                }
+
+                Target least = null;
+                for (Target replica : replicas) {
+                    if (!replica.ejected && (least == null || replica.outstanding.get() < least.outstanding.get())) {
+                        least = replica;
+                    }
+                }
+
+                if (least != null) {
+                    return least;
+                }
+            }
+        }
+
+        if (config.isFallbackToPrimary()) {
+            return primary;
+        }
+
+        throw new SQLTransientConnectionException(config.getName() + " - no healthy replica for a read only connection");
+    }
+
+    private final class RoutingConnection implements InvocationHandler {
+        boolean readOnly;
+        Target routedTo;
+        Connection target;
+        boolean closed;
+
+        void route() throws SQLException {
+            Target chosen = readOnly ? chooseReplica() : primary;
+
+            chosen.outstanding.incrementAndGet();
+            Connection borrowed;
+            try {
+                borrowed = chosen.dataSource.getConnection();
+            } catch (SQLException | RuntimeException e) {
+                chosen.outstanding.decrementAndGet();
+                throw e;
+            }
+
+            // a failed setup gives the connection back, otherwise it and its outstanding count leak
+            try {
+                if (readOnly) {
+                    borrowed.setReadOnly(true);
+                }
+            } catch (SQLException | RuntimeException e) {
+                try {
+                    borrowed.close();
+                } catch (SQLException | RuntimeException closeError) {
+                    e.addSuppressed(closeError);
+                } finally {
+                    chosen.outstanding.decrementAndGet();
+                }
+                throw e;
+            }
+
+            target = borrowed;
+            routedTo = chosen;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "RoutingConnection{" + (target != null ? routedTo.name() + ", " + target : "not borrowed") + '}';
+                case "isClosed":
+                    if (closed) {
+                        return true;
+                    }
+                    if (target == null) {
+                        return false;
+                    }
+                    break;
+                case "close":
+                    close();
+                    return null;
+                case "setReadOnly":
+                    if (target == null && !closed) {
+                        readOnly = (Boolean) args[0];
+                        return null;
+                    }
+                    break;
+                case "isReadOnly":
+                    if (target == null && !closed) {
+                        return readOnly;
+                    }
+                    break;
+                default:
+                    break;
+            }
+
+            if (closed) {
+                throw new SQLException("connection has been closed");
+            }
+
+            if (target == null) {
+                route();
+            }
+
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        private void close() throws SQLException {
+            if (closed) {
+                return;
+            }
+
+            closed = true;
+
+            if (target != null) {
+                try {
+                    target.close();
+                } finally {
+                    routedTo.outstanding.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    public int getReplicaCount() {
+        return replicas.length;
+    }
+
+    public boolean isReplicaEjected(int replica) {
+        return replicas[replica].ejected;
+    }
+
+    // borrows of the replica not closed yet, waiting ones included
+    public int getReplicaOutstandingBorrows(int replica) {
+        return replicas[replica].outstanding.get();
+    }
+
+    public int getPrimaryOutstandingBorrows() {
+        return primary.outstanding.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("adcp routing datasource don't support to get connection with username and password");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return primary.dataSource.getLogWriter();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        primary.dataSource.setLogWriter(out);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        primary.dataSource.setLoginTimeout(seconds);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return primary.dataSource.getLoginTimeout();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException("adcp routing datasource don't support to getParentLogger");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return (T) this;
+        }
+
+        return primary.dataSource.unwrap(iface);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || primary.dataSource.isWrapperFor(iface);
+    }
+
+    /**
+     * Shutdown the primary and all replicas.
+     */
+    @Override
+    public synchronized void close() {
+        if (isClosed) {
+            return;
+        }
+
+        isClosed = true;
+        logger.info("{} - Shutdown initiated...", config.getName());
+
+        if (healthCheck != null) {
+            AdcpHousekeeper.HOUSEKEEPING.cancel(healthCheck);
+        }
+
+        for (Target replica : replicas) {
+            replica.dataSource.close();
+        }
+        primary.dataSource.close();
+
+        logger.info("{} - Shutdown completed.", config.getName());
+    }
+}
@@ -0,0 +1,112 @@
+package com.fishqq.adcp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Guards connection creation. CLOSED lets the filler create connections, after failureThreshold
+ * failures in a row it goes OPEN: nothing is created and borrowers that find no idle connection fail
+ * right away. Once it was open for the probe interval, a probe moves it to HALF_OPEN for a single
+ * attempt, which closes it again on success or reopens it on failure. A threshold of 0 disables it,
+ * it then stays CLOSED.
+ */
+public class CircuitBreaker {
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String poolName;
+    private final int failureThreshold;
+    private final long probeIntervalNanos;
+    private final AdcpClock clock;
+    private final AdcpMonitor monitor;
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicInteger consecutiveFailures = new AtomicInteger(0);
+    // set before each move to OPEN
+    private volatile long openedAt;
+
+    private final static Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    CircuitBreaker(String poolName, int failureThreshold, long probeIntervalNanos, AdcpClock clock, AdcpMonitor monitor) {
+        this.poolName = poolName;
+        this.failureThreshold = failureThreshold;
+        this.probeIntervalNanos = probeIntervalNanos;
+        this.clock = clock;
+        this.monitor = monitor;
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    public boolean isClosed() {
+        return state.get() == State.CLOSED;
+    }
+
+    public int getConsecutiveFailures() {
+        return consecutiveFailures.get();
+    }
+
+    // true when the caller got the single attempt of the half open state
+    boolean tryProbe() {
+        if (state.get() != State.OPEN || clock.nanoTime() - openedAt < probeIntervalNanos) {
+            return false;
+        }
+        return transition(State.OPEN, State.HALF_OPEN);
+    }
+
+    void onSuccess() {
+        consecutiveFailures.set(0);
+
+        if (state.get() != State.CLOSED) {
+            // a creation started before the breaker opened may succeed as well as the probe
+            if (transition(State.HALF_OPEN, State.CLOSED) || transition(State.OPEN, State.CLOSED)) {
+                logger.info("{} - connection created, circuit breaker closed", poolName);
+            }
+        }
+    }
+
+    // the probe never connected, e.g. no room under a shared connection cap. back to open without
+    // counting a failure, the next probe interval tries again
+    void onProbeAborted() {
+        open(State.HALF_OPEN);
+    }
+
+    void onFailure(Throwable cause) {
+        int failures = consecutiveFailures.incrementAndGet();
+
+        if (open(State.HALF_OPEN)) {
+            logger.warn("{} - probe failed, circuit breaker stays open: {}", poolName, cause.toString());
+        } else if (failureThreshold > 0 && failures >= failureThreshold && open(State.CLOSED)) {
+            logger.error("{} - {} connection creations failed in a row, circuit breaker opened",
+                    poolName, failures, cause);
+        }
+    }
+
+    // the time is set first so a probe never sees an old one. a thread that loses the race writes
+    // the same moment give or take, it saw the state before the move as well
+    private boolean open(State from) {
+        if (state.get() != from) {
+            return false;
+        }
+        openedAt = clock.nanoTime();
+        return transition(from, State.OPEN);
+    }
+
+    private boolean transition(State from, State to) {
+        if (state.compareAndSet(from, to)) {
+            monitor.recordCircuitBreakerState(to);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "CircuitBreaker{" + state.get() + ", consecutiveFailures=" + consecutiveFailures.get() + '}';
+    }
+}
@@ -0,0 +1,37 @@
+package com.fishqq.adcp;
+
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Clock whose coarse time is a volatile read of the last tick instead of a clock call.
+ */
+public class CoarseClock implements AdcpClock, AutoCloseable {
+    private final AdcpClock clock;
+    private final ScheduledFuture<?> ticker;
+    private volatile long now;
+
+    public CoarseClock(AdcpClock clock, long tickMs) {
+        this.clock = clock;
+        this.now = clock.nanoTime();
+        this.ticker = AdcpHousekeeper.CLOCK.schedule(this::tick, tickMs, tickMs);
+    }
+
+    private void tick() {
+        now = clock.nanoTime();
+    }
+
+    @Override
+    public long nanoTime() {
+        return clock.nanoTime();
+    }
+
+    @Override
+    public long coarseNanoTime() {
+        return now;
+    }
+
+    @Override
+    public void close() {
+        AdcpHousekeeper.CLOCK.cancel(ticker);
+    }
+}
@@ -0,0 +1,68 @@
+package com.fishqq.adcp;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+// caps the raw connections of several pools together, a pool takes a permit before it connects
+// and gives it back when the raw connection is closed
+final class ConnectionBudget {
+    private final int maxConnections;
+    private final AtomicInteger used = new AtomicInteger(0);
+
+    // closes an idle connection somewhere else to make room, false when there was none
+    private volatile BooleanSupplier reclaimer = () -> false;
+    // lets pools waiting for a permit try again
+    private volatile Runnable releaseListener = () -> {
+    };
+
+    ConnectionBudget(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    void setReclaimer(BooleanSupplier reclaimer) {
+        this.reclaimer = reclaimer;
+    }
+
+    void setReleaseListener(Runnable releaseListener) {
+        this.releaseListener = releaseListener;
+    }
+
+    int getMaxConnections() {
+        return maxConnections;
+    }
+
+    int getUsed() {
+        return used.get();
+    }
+
+    // a permit, reclaiming an idle connection of another pool if all are taken
+    boolean acquire() {
+        return tryAcquire() || (reclaimer.getAsBoolean() && tryAcquire());
+    }
+
+    private boolean tryAcquire() {
+        while (true) {
+            int current = used.get();
+
+            if (current >= maxConnections) {
+                return false;
+            }
+
+            if (used.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    // a raw connection was closed
+    void release() {
+        used.decrementAndGet();
+        releaseListener.run();
+    }
+
+    // the permit was not used after all, e.g. the connect failed. nobody is told, a failure waits
+    // for the next demand instead of retrying right away
+    void returnUnused() {
+        used.decrementAndGet();
+    }
+}
@@ -0,0 +1,24 @@
+package com.fishqq.adcp;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Checks that a raw connection still works, on borrow when it was not known to work lately and in
+ * keepalive runs. The pool holds the connection exclusively while it is validated and enforces the
+ * timeout with setNetworkTimeout where the driver supports it, throwing counts as invalid.
+ */
+public interface ConnectionValidator {
+    ConnectionValidator IS_VALID = (connection, timeoutMs) -> connection.isValid(toSeconds(timeoutMs));
+
+    boolean isValid(Connection connection, int timeoutMs) throws SQLException;
+
+    // the pool closes the raw connection, drop anything kept for it
+    default void onClose(Connection connection) {
+    }
+
+    // jdbc timeouts are whole seconds and 0 means none, round up
+    static int toSeconds(int timeoutMs) {
+        return Math.max(1, (timeoutMs + 999) / 1000);
+    }
+}
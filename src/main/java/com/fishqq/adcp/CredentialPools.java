@@ -0,0 +1,325 @@
+package com.fishqq.adcp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientConnectionException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// a pool per username and password for getConnection(username, password), created on first use and
+// closed after it was not used for a while. all of them and the main pool may share one connection budget
+final class CredentialPools {
+    private final AdcpPoolConfig config;
+    private final DataSource dataSource;
+    private final AdcpPool mainPool;
+    private final ConnectionBudget budget;
+    private final ConcurrentHashMap<Credentials, SubPool> pools = new ConcurrentHashMap<>();
+    private final ScheduledFuture<?> eviction;
+    private volatile boolean closed = false;
+
+    private final static Logger logger = LoggerFactory.getLogger(CredentialPools.class);
+
+    private static final class Credentials {
+        final String username;
+        final String password;
+
+        Credentials(String username, String password) {
+            this.username = username;
+            this.password = password;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Credentials)) {
+                return false;
+            }
+            Credentials that = (Credentials) o;
+            return Objects.equals(username, that.username) && Objects.equals(password, that.password);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(username, password);
+        }
+
+        // never the password, it ends up in pool names and logs
+        @Override
+        public String toString() {
+            return String.valueOf(username);
+        }
+    }
+
+    private static final class SubPool {
+        final AdcpPool pool;
+        volatile long lastBorrowNanos;
+        // borrows on their way into the pool, -1 once eviction took it, then nobody enters any more
+        final AtomicInteger entering = new AtomicInteger(0);
+
+        SubPool(AdcpPool pool) {
+            this.pool = pool;
+            this.lastBorrowNanos = System.nanoTime();
+        }
+
+        boolean enter() {
+            while (true) {
+                int current = entering.get();
+                if (current < 0) {
+                    return false;
+                }
+                if (entering.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void leave() {
+            entering.decrementAndGet();
+        }
+
+        // a borrow that entered holds a connection or a waiter slot before it leaves, so no borrow
+        // is in flight once nobody is entering and the pool is unused
+        boolean retire() {
+            if (!entering.compareAndSet(0, -1)) {
+                return false;
+            }
+            if (!pool.isUnused()) {
+                entering.set(0);
+                return false;
+            }
+            return true;
+        }
+    }
+
+    CredentialPools(AdcpPoolConfig config, DataSource dataSource, AdcpPool mainPool, ConnectionBudget budget) {
+        this.config = config;
+        this.dataSource = dataSource;
+        this.mainPool = mainPool;
+        this.budget = budget;
+
+        if (budget != null) {
+            budget.setReclaimer(this::closeLeastRecentlyUsedIdle);
+            budget.setReleaseListener(this::fillWaiting);
+        }
+
+        long intervalMs = Math.max(1000, TimeUnit.SECONDS.toMillis(config.getCredentialPoolIdleTimeoutSeconds()) / 2);
+        this.eviction = AdcpHousekeeper.HOUSEKEEPING.schedule(this::evictIdle, intervalMs, intervalMs);
+    }
+
+    Connection borrow(String username, String password) throws SQLException {
+        Credentials credentials = new Credentials(username, password);
+
+        while (true) {
+            if (closed) {
+                throw new SQLException("credential pools of " + config.getPoolName() + " have been closed.");
+            }
+
+            SubPool sub = pools.get(credentials);
+            if (sub == null) {
+                sub = create(credentials);
+            }
+
+            // evicted between the lookup and the borrow, the next round opens a new one
+            if (!sub.enter()) {
+                continue;
+            }
+
+            try {
+                sub.lastBorrowNanos = System.nanoTime();
+                return sub.pool.borrow();
+            } catch (SQLException e) {
+                if (!sub.pool.isClosed() || closed) {
+                    throw e;
+                }
+            } finally {
+                sub.leave();
+            }
+        }
+    }
+
+    private synchronized SubPool create(Credentials credentials) throws SQLException {
+        SubPool sub = pools.get(credentials);
+        if (sub != null) {
+            return sub;
+        }
+
+        if (pools.size() >= config.getMaxCredentialPools() && !evictLeastRecentlyUsed()) {
+            throw new SQLTransientConnectionException(config.getPoolName() + " - all "
+                    + config.getMaxCredentialPools() + " credential pools are in use");
+        }
+
+        AdcpPoolConfig subConfig = config.copy();
+        subConfig.setPoolName(config.getPoolName() + "[" + credentials + "]");
+        subConfig.setMinIdle(0);
+
+        logger.info("{} - Starting credential pool...", subConfig.getPoolName());
+        sub = new SubPool(new AdcpPool(subConfig,
+                new CredentialDataSource(dataSource, credentials), new AdcpMemoryMonitor(), budget));
+        pools.put(credentials, sub);
+
+        return sub;
+    }
+
+    // makes room for a new credential, only a pool nobody uses right now is closed
+    private boolean evictLeastRecentlyUsed() {
+        Map.Entry<Credentials, SubPool> oldest = null;
+
+        for (Map.Entry<Credentials, SubPool> entry : pools.entrySet()) {
+            if (entry.getValue().entering.get() == 0 && entry.getValue().pool.isUnused()
+                    && (oldest == null || entry.getValue().lastBorrowNanos < oldest.getValue().lastBorrowNanos)) {
+                oldest = entry;
+            }
+        }
+
+        return oldest != null && oldest.getValue().retire() && shutdown(oldest.getKey(), oldest.getValue());
+    }
+
+    private void evictIdle() {
+        long now = System.nanoTime();
+        long idleTimeoutNanos = TimeUnit.SECONDS.toNanos(config.getCredentialPoolIdleTimeoutSeconds());
+
+        for (Map.Entry<Credentials, SubPool> entry : pools.entrySet()) {
+            try {
+                SubPool sub = entry.getValue();
+
+                if (now - sub.lastBorrowNanos >= idleTimeoutNanos && sub.pool.isUnused() && sub.retire()) {
+                    shutdown(entry.getKey(), sub);
+                }
+            } catch (Throwable e) {
+                logger.error("{} - eviction of credential pool {} failed", config.getPoolName(), entry.getKey(), e);
+            }
+        }
+    }
+
+    private boolean shutdown(Credentials credentials, SubPool sub) {
+        if (!pools.remove(credentials, sub)) {
+            return false;
+        }
+
+        logger.info("{} - closing unused credential pool", sub.pool.getConfig().getPoolName());
+        sub.pool.shutdown();
+
+        return true;
+    }
+
+    // budget reclaimer: closes the idle connection idle for the longest time across all pools
+    private boolean closeLeastRecentlyUsedIdle() {
+        AdcpPool victim = null;
+        long oldest = -1;
+
+        if (mainPool != null) {
+            oldest = mainPool.oldestIdleNanos();
+            victim = oldest >= 0 ? mainPool : null;
+        }
+
+        for (SubPool sub : pools.values()) {
+            long idleNanos = sub.pool.oldestIdleNanos();
+            if (idleNanos > oldest) {
+                oldest = idleNanos;
+                victim = sub.pool;
+            }
+        }
+
+        return victim != null && victim.closeIdleConnection(oldest);
+    }
+
+    // budget release listener: a closed connection is room for a pool that has borrowers waiting
+    private void fillWaiting() {
+        if (mainPool != null && mainPool.hasWaiters()) {
+            mainPool.fillIfNeeded();
+        }
+
+        for (SubPool sub : pools.values()) {
+            if (sub.pool.hasWaiters()) {
+                sub.pool.fillIfNeeded();
+            }
+        }
+    }
+
+    // by username, the password is left out
+    Map<String, AdcpMetrics> metrics() {
+        Map<String, AdcpMetrics> metrics = new LinkedHashMap<>();
+        for (Map.Entry<Credentials, SubPool> entry : pools.entrySet()) {
+            metrics.put(entry.getKey().toString(), entry.getValue().pool);
+        }
+        return metrics;
+    }
+
+    void close() {
+        closed = true;
+        AdcpHousekeeper.HOUSEKEEPING.cancel(eviction);
+
+        for (Map.Entry<Credentials, SubPool> entry : pools.entrySet()) {
+            shutdown(entry.getKey(), entry.getValue());
+        }
+    }
+
+    // the underlying data source seen by a credential pool, every connection is opened with its credentials
+    private static final class CredentialDataSource implements DataSource {
+        private final DataSource dataSource;
+        private final Credentials credentials;
+
+        CredentialDataSource(DataSource dataSource, Credentials credentials) {
+            this.dataSource = dataSource;
+            this.credentials = credentials;
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            return dataSource.getConnection(credentials.username, credentials.password);
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            return dataSource.getConnection(username, password);
+        }
+
+        @Override
+        public PrintWriter getLogWriter() throws SQLException {
+            return dataSource.getLogWriter();
+        }
+
+        @Override
+        public void setLogWriter(PrintWriter out) throws SQLException {
+            dataSource.setLogWriter(out);
+        }
+
+        @Override
+        public void setLoginTimeout(int seconds) throws SQLException {
+            dataSource.setLoginTimeout(seconds);
+        }
+
+        @Override
+        public int getLoginTimeout() throws SQLException {
+            return dataSource.getLoginTimeout();
+        }
+
+        @Override
+        public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            return dataSource.getParentLogger();
+        }
+
+        @Override
+        public <T> T unwrap(Class<T> iface) throws SQLException {
+            return dataSource.unwrap(iface);
+        }
+
+        @Override
+        public boolean isWrapperFor(Class<?> iface) throws SQLException {
+            return dataSource.isWrapperFor(iface);
+        }
+    }
+}
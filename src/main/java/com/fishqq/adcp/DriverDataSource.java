@@ -13,24 +13,37 @@ public final class DriverDataSource implements DataSource {
     private final Driver driver;
     private final String jdbcUrl;
     private final Properties driverProperties;
-    private final Properties driverPropertiesWithUserPassword;
 
     public DriverDataSource(Driver driver, String jdbcUrl, Properties driverProperties) {
         this.driver = driver;
         this.jdbcUrl = jdbcUrl;
         this.driverProperties = driverProperties;
-        this.driverPropertiesWithUserPassword = new Properties(driverProperties);
     }
 
     public Connection getConnection() throws SQLException {
         return driver.connect(jdbcUrl, driverProperties);
     }
 
+    // a copy per call, the shared properties are never changed and concurrent calls don't see each other's credentials
     public Connection getConnection(String username, String password) throws SQLException {
-        driverPropertiesWithUserPassword.put("user", username);
-        driverPropertiesWithUserPassword.put("password", password);
+        // putAll would miss the defaults of the configured properties
+        Properties properties = new Properties();
+        for (String name : driverProperties.stringPropertyNames()) {
+            properties.setProperty(name, driverProperties.getProperty(name));
+        }
+        setCredential(properties, DriverPropertyKey.user.name(), username);
+        setCredential(properties, DriverPropertyKey.password.name(), password);
 
-        return this.driver.connect(jdbcUrl, driverProperties);
+        return this.driver.connect(jdbcUrl, properties);
+    }
+
+    // null is no credential, not the configured one of another user
+    private static void setCredential(Properties properties, String key, String value) {
+        if (value == null) {
+            properties.remove(key);
+        } else {
+            properties.setProperty(key, value);
+        }
     }
 
     public PrintWriter getLogWriter() throws SQLException {
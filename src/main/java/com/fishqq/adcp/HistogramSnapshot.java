@@ -0,0 +1,64 @@
+package com.fishqq.adcp;
+
+/**
+ * Immutable copy of a {@link LogHistogram}. Percentiles are the upper bound of the bucket they fall
+ * in, capped at the exact max, so they are never lower than the recorded value.
+ */
+public final class HistogramSnapshot {
+    private final long[] buckets;
+    private final long count;
+    private final long sum;
+    private final long max;
+
+    HistogramSnapshot(long[] buckets, long count, long sum, long max) {
+        this.buckets = buckets;
+        this.count = count;
+        this.sum = sum;
+        this.max = max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public long getMean() {
+        return count == 0 ? 0 : sum / count;
+    }
+
+    // percentile in [0, 100], e.g. 99.9
+    public long getPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return Math.min(LogHistogram.bucketUpperBound(i), max);
+            }
+        }
+
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + count +
+                " mean=" + getMean() +
+                " p50=" + getPercentile(50) +
+                " p99=" + getPercentile(99) +
+                " p99.9=" + getPercentile(99.9) +
+                " max=" + max;
+    }
+}
@@ -0,0 +1,89 @@
+package com.fishqq.adcp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// runs at most maxConcurrency tasks at a time on a shared executor, the others wait in a queue
+final class LimitedExecutor implements Executor {
+    private final Executor executor;
+    private final int maxConcurrency;
+    private final ConcurrentLinkedQueue<Runnable> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger running = new AtomicInteger(0);
+
+    private final static Logger logger = LoggerFactory.getLogger(LimitedExecutor.class);
+
+    LimitedExecutor(Executor executor, int maxConcurrency) {
+        this.executor = executor;
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        queue.offer(task);
+
+        try {
+            drain();
+        } catch (RejectedExecutionException e) {
+            // still queued means nobody runs it, otherwise a running worker took it
+            if (queue.remove(task)) {
+                throw e;
+            }
+        }
+    }
+
+    // drops the queued tasks
+    void clear() {
+        queue.clear();
+    }
+
+    // starts one more worker unless all are busy, every queued task asked for one
+    private void drain() {
+        while (!queue.isEmpty()) {
+            int current = running.get();
+
+            if (current >= maxConcurrency) {
+                // a running worker picks the task up before it stops
+                return;
+            }
+
+            if (running.compareAndSet(current, current + 1)) {
+                try {
+                    executor.execute(this::runQueued);
+                } catch (RejectedExecutionException e) {
+                    running.decrementAndGet();
+                    throw e;
+                }
+                return;
+            }
+        }
+    }
+
+    private void runQueued() {
+        try {
+            Runnable task;
+            while ((task = queue.poll()) != null) {
+                try {
+                    task.run();
+                } catch (Throwable e) {
+                    logger.error("task failed: {}", task, e);
+                }
+            }
+        } finally {
+            running.decrementAndGet();
+        }
+
+        // a task queued while this worker was stopping saw it still running
+        if (!queue.isEmpty()) {
+            try {
+                drain();
+            } catch (RejectedExecutionException e) {
+                logger.warn("executor rejected queued tasks, they run with the next one");
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.fishqq.adcp;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of non negative longs with log-linear buckets, in the spirit of HdrHistogram: every
+ * power of two is split into 16 buckets, so a recorded value is off by at most 1/16 when read back.
+ * Values from 2^41 on share the last bucket. Not thread safe, the owner guards it.
+ */
+public final class LogHistogram {
+    static final int SUB_BUCKET_BITS = 4;
+    static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    // highest power of two with its own buckets
+    static final int MAX_EXPONENT = 40;
+    // values below SUB_BUCKET_COUNT, one row per exponent and one overflow bucket
+    static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT + 1;
+
+    private final long[] buckets = new long[BUCKET_COUNT];
+    private long count;
+    private long sum;
+    private long max;
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        buckets[bucketIndex(value)]++;
+        count++;
+        sum += value;
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    public void addTo(LogHistogram other) {
+        if (count == 0) {
+            return;
+        }
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            other.buckets[i] += buckets[i];
+        }
+        other.count += count;
+        other.sum += sum;
+        other.max = Math.max(other.max, max);
+    }
+
+    public void clear() {
+        if (count == 0) {
+            return;
+        }
+        Arrays.fill(buckets, 0);
+        count = 0;
+        sum = 0;
+        max = 0;
+    }
+
+    public HistogramSnapshot snapshot() {
+        return new HistogramSnapshot(buckets.clone(), count, sum, max);
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+
+        int shift = exponent - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKET_COUNT + (int) ((value >>> shift) & (SUB_BUCKET_COUNT - 1));
+    }
+
+    // the largest value that falls into the bucket
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        if (index == BUCKET_COUNT - 1) {
+            return Long.MAX_VALUE;
+        }
+
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long subBucket = SUB_BUCKET_COUNT + index % SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,79 @@
+package com.fishqq.adcp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Picks the cheapest round trip the driver offers, once per connection class:
+ * PostgreSQL gets an empty query, MySQL Connector/J turns a query starting with its ping marker into
+ * a protocol ping without parsing anything, everything else falls back to isValid.
+ * Drivers are recognized with isWrapperFor, so the connection may also be wrapped.
+ */
+public class PingConnectionValidator implements ConnectionValidator {
+    private static final String[] POSTGRESQL_CONNECTIONS = {"org.postgresql.PGConnection"};
+    private static final String[] MYSQL_CONNECTIONS = {"com.mysql.cj.jdbc.JdbcConnection", "com.mysql.jdbc.MySQLConnection"};
+
+    private static final ConnectionValidator EMPTY_QUERY = (connection, timeoutMs) -> {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("");
+        }
+        return true;
+    };
+
+    // connector/j only honours the marker in executeQuery of a plain statement
+    private static final ConnectionValidator MYSQL_PING = (connection, timeoutMs) -> {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeQuery("/* ping */ SELECT 1").close();
+        }
+        return true;
+    };
+
+    private final Map<Class<?>, ConnectionValidator> validators = new ConcurrentHashMap<>();
+
+    private final static Logger logger = LoggerFactory.getLogger(PingConnectionValidator.class);
+
+    @Override
+    public boolean isValid(Connection connection, int timeoutMs) throws SQLException {
+        ConnectionValidator validator = validators.get(connection.getClass());
+
+        if (validator == null) {
+            validator = choose(connection);
+            validators.put(connection.getClass(), validator);
+        }
+
+        return validator.isValid(connection, timeoutMs);
+    }
+
+    private static ConnectionValidator choose(Connection connection) {
+        if (isWrapperFor(connection, POSTGRESQL_CONNECTIONS)) {
+            logger.info("validate {} with an empty query", connection.getClass().getName());
+            return EMPTY_QUERY;
+        }
+        if (isWrapperFor(connection, MYSQL_CONNECTIONS)) {
+            logger.info("validate {} with a protocol ping", connection.getClass().getName());
+            return MYSQL_PING;
+        }
+        logger.info("validate {} with isValid", connection.getClass().getName());
+        return IS_VALID;
+    }
+
+    private static boolean isWrapperFor(Connection connection, String[] classNames) {
+        for (String className : classNames) {
+            try {
+                Class<?> type = Class.forName(className, false, connection.getClass().getClassLoader());
+                if (connection.isWrapperFor(type)) {
+                    return true;
+                }
+            } catch (ClassNotFoundException | SQLException | LinkageError e) {
+                // not this driver
+            }
+        }
+        return false;
+    }
+}
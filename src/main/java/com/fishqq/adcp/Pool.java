@@ -2,278 +2,722 @@ package com.fishqq.adcp;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.ObjLongConsumer;
 import java.util.function.Predicate;
-import java.util.function.Supplier;
 
+/**
+ * Array of nodes, each node owns its state (EMPTY, IDLE, ACTIVE or RESERVED) and every
+ * state transition is a CAS on the node, so borrow and give back don't take any lock.
+ * Resizing never moves nodes: growing publishes a longer copy of the array, shrinking lowers the
+ * capacity, nodes at or above it are retired and neither taken nor filled any more.
+ * Borrowers only take IDLE nodes, EMPTY nodes are reserved and filled by the connection filler.
+ * Threads that found no IDLE node park in a FIFO wait queue. A released node either wakes the
+ * oldest waiter to scan again, or with fair hand-off is passed to it directly.
+ * Async waiters have no thread to wake, a released node is passed to the oldest of them directly
+ * by the releasing thread, before parked threads are signalled. Both kinds of waiters carry one
+ * arrival sequence, fair hand-off serves whichever waiter is older, so neither kind starves the other.
+ * <p>
+ * With stripes the usable nodes are cut into that many slices. A borrower scans the slice of its
+ * thread hash first and only then the others, so threads on many cores mostly CAS different nodes
+ * instead of all racing for the first idle one. New connections go to the slices in turn. The
+ * slices are ranges of the one array, capacity, limit, counts and waiters stay pool wide.
+ */
 public class Pool<E> {
-    private final Node idleHead;
-    private final Node activeHead;
-    private final Node emptyHead;
+    static final int EMPTY = 0;
+    static final int IDLE = 1;
+    static final int ACTIVE = 2;
+    static final int RESERVED = 3;
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<Pool.Node> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(Pool.Node.class, "state");
+
+    // nodes.length >= capacity, read capacity first
+    private volatile Node[] nodes;
+    private volatile int capacity;
+    // nodes at or above the limit keep their connections but are neither taken nor filled, unlike
+    // retired nodes they are back in use as soon as the limit rises again
+    private volatile int limit = Integer.MAX_VALUE;
+    private final AdcpClock clock;
+
+    // the node each thread gave back last, tried before scanning the shared array. it is only a hint:
+    // the node stays in the array, so when its thread is gone (or just busy) any scanning borrower
+    // or the recycler can still take it over. virtual threads skip it, they live for one task and a
+    // thread local per virtual thread costs more than the scan it saves
+    private final ThreadLocal<Node> lastGivenBack;
+
+    private final boolean fairHandoff;
+    private final int stripes;
+    // slice the next reserved empty node is looked for first
+    private final AtomicInteger fillStripe = new AtomicInteger(0);
+    private final ConcurrentLinkedQueue<Waiter> waitQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger waiterCount = new AtomicInteger(0);
+    // arrival order across parked and async waiters
+    private final AtomicLong waiterSequence = new AtomicLong(0);
+
+    // at most one signalled waiter is on its way to scan, releasing threads don't wake more
+    // waiters that would mostly lose the race against barging borrowers
+    private final AtomicBoolean signalling = new AtomicBoolean(false);
+
+    private static final Object SIGNALLED = new Object();
+    private static final Object CANCELLED = new Object();
+
+    private static final AtomicReferenceFieldUpdater<Waiter, Object> WAITER_STATE =
+            AtomicReferenceFieldUpdater.newUpdater(Waiter.class, Object.class, "state");
+
+    // state is null while waiting, then SIGNALLED (scan again), CANCELLED or the handed off node
+    private static final class Waiter {
+        final Thread thread;
+        final long startNanos;
+        final long sequence;
+        volatile Object state;
+
+        Waiter(Thread thread, long startNanos, long sequence) {
+            this.thread = thread;
+            this.startNanos = startNanos;
+            this.sequence = sequence;
+        }
+
+        boolean compareAndSet(Object expect, Object update) {
+            return WAITER_STATE.compareAndSet(this, expect, update);
+        }
+    }
+
+    private final ConcurrentLinkedQueue<AsyncWaiter> asyncQueue = new ConcurrentLinkedQueue<>();
+    // set while this thread passes nodes to async waiters. a waiter that gives its node back right away
+    // must not recurse into passing it on, the loop further up the stack takes the node instead
+    private final ThreadLocal<Boolean> completingAsync = new ThreadLocal<>();
+
+    // state is null while waiting, then CANCELLED or the handed off node
+    public final class AsyncWaiter {
+        private final Consumer<Node> consumer;
+        private final long sequence = waiterSequence.getAndIncrement();
+        volatile Object state;
 
-    private final Lock idleAndEmptyLock = new ReentrantLock();
-    private final Condition noIdleOrEmptyNodeCondition = idleAndEmptyLock.newCondition();
+        private AsyncWaiter(Consumer<Node> consumer) {
+            this.consumer = consumer;
+        }
 
-    private final SpinLock activeLock = new SpinLock();
+        // false when a node was passed to it already
+        public boolean cancel() {
+            if (!ASYNC_WAITER_STATE.compareAndSet(this, null, CANCELLED)) {
+                return false;
+            }
+            asyncQueue.remove(this);
+            waiterCount.decrementAndGet();
+            return true;
+        }
 
-    private int idleCount;
-    private int activeCount;
+        private boolean complete(Node node) {
+            if (!ASYNC_WAITER_STATE.compareAndSet(this, null, node)) {
+                return false;
+            }
+            waiterCount.decrementAndGet();
+            consumer.accept(node);
+            return true;
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<Pool.AsyncWaiter, Object> ASYNC_WAITER_STATE =
+            AtomicReferenceFieldUpdater.newUpdater(Pool.AsyncWaiter.class, Object.class, "state");
 
     public final class Node {
-        Node next;
-        Node prev;
+        final int index;
+        volatile int state = EMPTY;
         E item;
-    }
 
-    public enum NodeType {
-        IDLE,
-        EMPTY
+        private Node(int index) {
+            this.index = index;
+        }
+
+        private boolean compareAndSet(int expect, int update) {
+            return STATE.compareAndSet(this, expect, update);
+        }
     }
 
     public Pool(int capacity) {
-        this.idleHead = new Node();
-        this.activeHead = new Node();
-        this.emptyHead = new Node();
+        this(capacity, false, false, 1, AdcpClock.SYSTEM);
+    }
+
+    @SuppressWarnings("unchecked")
+    public Pool(int capacity, boolean threadAffinity, boolean fairHandoff, int stripes, AdcpClock clock) {
+        this.stripes = Math.max(1, stripes);
+        this.nodes = (Node[]) new Pool.Node[capacity];
+        this.capacity = capacity;
+        this.clock = clock;
+        this.lastGivenBack = threadAffinity ? new ThreadLocal<>() : null;
+        this.fairHandoff = fairHandoff;
 
-        List<Node> nodes = new ArrayList<>(capacity);
         for (int i = 0; i < capacity; i++) {
-            nodes.add(new Node());
+            this.nodes[i] = new Node(i);
         }
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    // borrowers never wait for the resize, they see the new nodes with their next scan
+    @SuppressWarnings("unchecked")
+    public synchronized void resize(int newCapacity) {
+        Node[] current = nodes;
 
-        this.emptyHead.next = nodes.get(0);
-        Node prev = this.emptyHead;
+        if (newCapacity > current.length) {
+            Node[] grown = (Node[]) new Pool.Node[newCapacity];
+            System.arraycopy(current, 0, grown, 0, current.length);
 
-        for (int i = 0; i < capacity - 1; i++) {
-            Node current = nodes.get(i);
-            current.next = nodes.get(i + 1);
-            current.prev = prev;
-            prev = current;
+            for (int i = current.length; i < newCapacity; i++) {
+                grown[i] = new Node(i);
+            }
+
+            nodes = grown;
         }
 
-        nodes.get(nodes.size() - 1).prev = prev;
+        capacity = newCapacity;
+    }
+
+    // nodes borrowers may use, at most the capacity
+    public int limit() {
+        return Math.min(limit, capacity);
+    }
+
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    // the owner closes the item of a retired node instead of giving it back
+    public boolean isRetired(Node node) {
+        return node.index >= capacity;
+    }
+
+    // reserves up to maxCount idle retired nodes, the caller closes their items and gives them back with returnEmptyNode
+    public void takeRetiredIdleNodes(int maxCount, List<Node> taken) {
+        Node[] nodes = this.nodes;
+
+        for (int i = capacity; i < nodes.length && taken.size() < maxCount; i++) {
+            Node node = nodes[i];
+            if (node.state == IDLE && node.compareAndSet(IDLE, RESERVED)) {
+                taken.add(node);
+            }
+        }
     }
 
     public int idleCount() {
-        return idleCount;
+        return count(IDLE);
     }
 
     public int activeCount() {
-        return activeCount;
+        return count(ACTIVE);
     }
 
-    public void recycleIdleItems(Consumer<E> recycleHandler, Predicate<E> needRecycle, Supplier<Boolean> needStop) {
-        idleAndEmptyLock.lock();
+    public int emptyCount() {
+        return count(EMPTY);
+    }
 
-        try {
-            Node node = idleHead.next;
+    public int waiterCount() {
+        return waiterCount.get();
+    }
 
-            while (node != null) {
-                if (needStop.get()) {
-                    break;
-                }
+    // the waiting threads with the clock nanos they started waiting at
+    public void forEachWaiter(ObjLongConsumer<Thread> consumer) {
+        for (Waiter waiter : waitQueue) {
+            consumer.accept(waiter.thread, waiter.startNanos);
+        }
+    }
 
-                if (needRecycle.test(node.item)) {
-                    recycleHandler.accept(node.item);
-                    Node next = node.next;
-                    destroyIdle(node);
-                    node = next;
-                } else {
-                    node = node.next;
-                }
+    // nodes per state indexed by EMPTY, IDLE, ACTIVE and RESERVED, read in one pass so they add up to the capacity
+    // plus the retired nodes still in use
+    public int[] stateCounts() {
+        int capacity = this.capacity;
+        Node[] nodes = this.nodes;
+        int[] counts = new int[4];
+
+        for (int i = 0; i < nodes.length; i++) {
+            int state = nodes[i].state;
+            if (i < capacity || state != EMPTY) {
+                counts[state]++;
             }
-        } finally {
-            idleAndEmptyLock.unlock();
         }
+        return counts;
     }
 
-    private void destroyIdle(Node idle) {
-        --idleCount;
-        move(idle, emptyHead);
+    // like stateCounts but only the nodes below the limit, the ones borrowers can take or the filler fill
+    public int[] usableStateCounts() {
+        int limit = limit();
+        Node[] nodes = this.nodes;
+        int[] counts = new int[4];
+
+        for (int i = 0; i < limit; i++) {
+            counts[nodes[i].state]++;
+        }
+        return counts;
     }
 
-    private boolean noIdleOrEmptyNode() {
-        return idleHead.next == null && emptyHead.next == null;
+    private int count(int state) {
+        int capacity = this.capacity;
+        Node[] nodes = this.nodes;
+        int count = 0;
+
+        for (int i = 0; i < nodes.length; i++) {
+            if (nodes[i].state == state && (i < capacity || state != EMPTY)) {
+                ++count;
+            }
+        }
+        return count;
     }
 
-    public List<E> listActiveItems() {
-        List<E> items = new ArrayList<>(activeCount);
+    // reserves up to maxCount idle nodes whose item matches, the caller gives them back with returnEmptyNode.
+    // nodes at or above the limit come first, recycling empties them before the ones borrowers can take
+    public void takeIdleNodes(Predicate<E> predicate, int maxCount, List<Node> taken) {
+        Node[] nodes = this.nodes;
+        int limit = Math.min(limit(), nodes.length);
 
-        activeLock.lock();
+        for (int i = limit; i < nodes.length && taken.size() < maxCount; i++) {
+            takeIdleNode(nodes[i], predicate, taken);
+        }
 
-        try {
-            Node node = activeHead.next;
-            while (node != null) {
-                items.add(node.item);
-                node = node.next;
+        for (int i = 0; i < limit && taken.size() < maxCount; i++) {
+            takeIdleNode(nodes[i], predicate, taken);
+        }
+    }
+
+    private void takeIdleNode(Node node, Predicate<E> predicate, List<Node> taken) {
+        if (node.state != IDLE || !node.compareAndSet(IDLE, RESERVED)) {
+            return;
+        }
+
+        if (predicate.test(node.item)) {
+            taken.add(node);
+        } else {
+            release(node, IDLE);
+        }
+    }
+
+    public List<E> listIdleItems() {
+        List<E> items = new ArrayList<>();
+
+        for (Node node : nodes) {
+            E item = node.item;
+            if (node.state == IDLE && item != null) {
+                items.add(item);
             }
+        }
 
-            return items;
-        } finally {
-            activeLock.unlock();
+        return items;
+    }
+
+    public List<E> listActiveItems() {
+        List<E> items = new ArrayList<>();
+
+        for (Node node : nodes) {
+            E item = node.item;
+            if (node.state == ACTIVE && item != null) {
+                items.add(item);
+            }
         }
+
+        return items;
     }
 
     public void destroyAll(Consumer<E> handler) {
-        idleAndEmptyLock.lock();
-        destroyAll(idleHead.next, handler);
-        idleCount = 0;
-        noIdleOrEmptyNodeCondition.signalAll();
-        idleAndEmptyLock.unlock();
-
-        activeLock.lock();
-        destroyAll(activeHead.next, handler);
-        activeCount = 0;
-        activeLock.unlock();
-    }
-
-    private void destroyAll(Node first, Consumer<E> handler) {
-        if (first != null) {
-            Node last = destroyAllReturnLast(first, handler);
-            Node firstEmpty = emptyHead.next;
-            emptyHead.next = first;
-            first.prev = emptyHead;
-            last.next = firstEmpty;
-            if (firstEmpty != null) {
-                firstEmpty.prev = last;
+        for (Node node : nodes) {
+            if (node.compareAndSet(IDLE, RESERVED) || node.compareAndSet(ACTIVE, RESERVED)) {
+                handler.accept(node.item);
+                node.state = EMPTY;
             }
         }
-    }
 
-    private Node destroyAllReturnLast(Node node, Consumer<E> handler) {
-        Node last = null;
+        Waiter waiter;
+        while ((waiter = waitQueue.poll()) != null) {
+            signal(waiter);
+        }
 
-        while (node != null) {
-            handler.accept(node.item);
-            last = node;
-            node = node.next;
+        AsyncWaiter asyncWaiter;
+        while ((asyncWaiter = asyncQueue.poll()) != null) {
+            asyncWaiter.complete(null);
         }
+    }
 
-        return last;
+    // false when destroyAll took the node first, only the caller that wins the node closes its item
+    public boolean destroyActive(Node active, Consumer<E> handler) {
+        if (!active.compareAndSet(ACTIVE, RESERVED)) {
+            return false;
+        }
+
+        handler.accept(active.item);
+        release(active, EMPTY);
+        return true;
     }
 
-    public void destroyActive(Node active, Consumer<E> handler) {
-        idleAndEmptyLock.lock();
+    // waits until the clock's nanoTime() deadline, returns null when it passed. demandHandler runs once
+    // the caller is queued as a waiter, e.g. to ask for a new connection.
+    // nothing is allocated unless the caller has to wait, keep the handlers in fields
+    public Node tryTakeIdleNode(long deadlineNanos, LongConsumer waitHandler, Runnable demandHandler)
+            throws InterruptedException {
+        Node node = tryTake();
+
+        if (node != null) {
+            return node;
+        }
+
+        long startWait = clock.nanoTime();
+
+        if (deadlineNanos - startWait <= 0) {
+            return null;
+        }
+
+        // enqueue before scanning again, so a node released after the scan always finds this waiter
+        Waiter waiter = new Waiter(Thread.currentThread(), startWait, waiterSequence.getAndIncrement());
+        waitQueue.offer(waiter);
+        waiterCount.incrementAndGet();
 
         try {
-            boolean empty = noIdleOrEmptyNode();
+            boolean demanded = false;
+
+            while (true) {
+                node = tryTake();
+
+                if (node != null) {
+                    leave(waiter);
+                    return node;
+                }
+
+                if (!demanded) {
+                    demandHandler.run();
+                    demanded = true;
+                }
+
+                if (Thread.interrupted()) {
+                    // give back whatever was passed to the waiter meanwhile
+                    leave(waiter);
+                    throw new InterruptedException();
+                }
+
+                long remaining = deadlineNanos - clock.nanoTime();
 
-            activeLock.lock();
-            E item = active.item;
-            --activeCount;
-            move(active, emptyHead);
-            handler.accept(item);
-            activeLock.unlock();
+                if (remaining <= 0) {
+                    if (waiter.compareAndSet(null, CANCELLED)) {
+                        waitQueue.remove(waiter);
+                        return null;
+                    }
 
-            if (empty) {
-                signalNotEmpty();
+                    return takeHandedOff(waiter);
+                }
+
+                LockSupport.parkNanos(this, remaining);
+
+                Object state = waiter.state;
+
+                if (state instanceof Pool.Node) {
+                    return takeHandedOff(waiter);
+                } else if (state == SIGNALLED) {
+                    signalling.set(false);
+
+                    // already out of the queue, only enqueue again if another thread took the released node
+                    if ((node = tryTake()) != null) {
+                        signalIfAvailable();
+                        return node;
+                    }
+
+                    waiter.state = null;
+                    waitQueue.offer(waiter);
+                }
             }
         } finally {
-            idleAndEmptyLock.unlock();
+            waiterCount.decrementAndGet();
+            waitHandler.accept(clock.nanoTime() - startWait);
+        }
+    }
+
+    // like tryTakeIdleNode without blocking: the consumer gets an idle node right away on this thread, or
+    // later on the thread that releases one, or null when the pool is destroyed. returns the waiter to
+    // cancel it, null when the consumer already ran. demandHandler runs once the waiter is queued
+    public AsyncWaiter tryTakeIdleNodeAsync(Consumer<Node> consumer, Runnable demandHandler) {
+        Node node = tryTake();
+
+        if (node != null) {
+            consumer.accept(node);
+            return null;
         }
+
+        AsyncWaiter waiter = new AsyncWaiter(consumer);
+        waiterCount.incrementAndGet();
+        asyncQueue.offer(waiter);
+
+        // a node released before the waiter was queued didn't see it
+        completeAsyncWaiters();
+
+        demandHandler.run();
+        return waiter;
     }
 
-    private void signalNotEmpty() {
-        idleAndEmptyLock.lock();
+    // passes idle nodes to queued async waiters, called after a node became idle
+    private void completeAsyncWaiters() {
+        if (asyncQueue.isEmpty() || completingAsync.get() != null) {
+            return;
+        }
+
+        completingAsync.set(Boolean.TRUE);
+
         try {
-            noIdleOrEmptyNodeCondition.signal();
+            while (!asyncQueue.isEmpty()) {
+                Node node = tryTake();
+
+                if (node == null) {
+                    return;
+                }
+
+                // a parked waiter that came first gets it
+                if (fairHandoff && handOff(node)) {
+                    continue;
+                }
+
+                AsyncWaiter waiter;
+                boolean passed = false;
+
+                while ((waiter = asyncQueue.poll()) != null) {
+                    if (waiter.complete(node)) {
+                        passed = true;
+                        break;
+                    }
+                }
+
+                if (!passed) {
+                    // all waiters were cancelled meanwhile, a parked thread may want it
+                    node.state = IDLE;
+                    signalNext();
+                    return;
+                }
+            }
         } finally {
-            idleAndEmptyLock.unlock();
+            completingAsync.set(null);
+        }
+    }
+
+    // leave with a node found by scanning, give back whatever was passed to the waiter meanwhile
+    private void leave(Waiter waiter) {
+        if (waiter.compareAndSet(null, CANCELLED)) {
+            waitQueue.remove(waiter);
+            return;
+        }
+
+        Object state = waiter.state;
+
+        if (state == SIGNALLED) {
+            // pass the wake up on, the released node may still be there for somebody else
+            signalling.set(false);
+            signalIfAvailable();
+        } else if (state instanceof Pool.Node) {
+            @SuppressWarnings("unchecked")
+            Node node = (Node) state;
+            release(node, IDLE);
         }
     }
 
-    public Pair<NodeType, Node> tryTakeIdleOrEmptyNode(long timeoutMs, Consumer<Long> waitHandler) {
-        long nanos = TimeUnit.MICROSECONDS.toNanos(timeoutMs);
+    @SuppressWarnings("unchecked")
+    private Node takeHandedOff(Waiter waiter) {
+        Object state = waiter.state;
 
-        idleAndEmptyLock.lock();
+        if (state instanceof Pool.Node) {
+            return (Node) state;
+        }
+
+        // signalled while timing out, one last scan
+        signalling.set(false);
+        Node node = tryTake();
+        signalIfAvailable();
+        return node;
+    }
 
-        while (noIdleOrEmptyNode()) {
-            if (nanos <= 0) {
-                idleAndEmptyLock.unlock();
-                return null;
+    private Node tryTake() {
+        if (lastGivenBack != null && !VirtualThreads.isVirtual(Thread.currentThread())) {
+            Node last = lastGivenBack.get();
+            if (last != null && last.state == IDLE && last.index < limit() && last.compareAndSet(IDLE, ACTIVE)) {
+                return last;
             }
+        }
+
+        int limit = limit();
+        Node[] nodes = this.nodes;
+        int start = stripes > 1 ? stripeStart(homeStripe(), limit) : 0;
 
-            try {
-                long remaining = noIdleOrEmptyNodeCondition.awaitNanos(nanos);
-                waitHandler.accept(nanos - remaining);
-                nanos = remaining;
-            } catch (Throwable e) {
-                // just return and retry
-                idleAndEmptyLock.unlock();
-                return null;
+        // the home slice up to the end, then wrapping around over the others
+        for (int i = start; i < limit; i++) {
+            Node node = nodes[i];
+            if (node.state == IDLE && node.compareAndSet(IDLE, ACTIVE)) {
+                return node;
             }
         }
 
-        Node idle = idleHead.next;
+        for (int i = 0; i < start; i++) {
+            Node node = nodes[i];
+            if (node.state == IDLE && node.compareAndSet(IDLE, ACTIVE)) {
+                return node;
+            }
+        }
 
-        if (idle != null) {
-            activeLock.lock();
-            --idleCount;
-            ++activeCount;
-            move(idle, activeHead);
-            activeLock.unlock();
-            idleAndEmptyLock.unlock();
-            return new Pair<>(NodeType.IDLE, idle);
-        } else {
-            Node emptyNode = remove(emptyHead.next);
-            idleAndEmptyLock.unlock();
-            return new Pair<>(NodeType.EMPTY, emptyNode);
+        return null;
+    }
+
+    // the thread id spread by the golden ratio, consecutive ids land on different slices
+    private int homeStripe() {
+        int hash = (int) Thread.currentThread().getId() * 0x9E3779B9;
+        return (hash >>> 16) % stripes;
+    }
+
+    // slices follow the limit, so they stay even when the pool is resized or limited
+    private int stripeStart(int stripe, int limit) {
+        return (int) ((long) stripe * limit / stripes);
+    }
+
+    // an empty node to put a new connection in, it goes back with pushToIdle or returnEmptyNode
+    public Node reserveEmptyNode() {
+        int limit = limit();
+        Node[] nodes = this.nodes;
+        int start = stripes > 1
+                ? stripeStart(Math.floorMod(fillStripe.getAndIncrement(), stripes), limit)
+                : 0;
+
+        for (int i = start; i < limit; i++) {
+            Node node = nodes[i];
+            if (node.state == EMPTY && node.compareAndSet(EMPTY, RESERVED)) {
+                return node;
+            }
         }
+
+        for (int i = 0; i < start; i++) {
+            Node node = nodes[i];
+            if (node.state == EMPTY && node.compareAndSet(EMPTY, RESERVED)) {
+                return node;
+            }
+        }
+
+        return null;
     }
 
-    // move active node to idle list
+    // move active node to idle, or hand it to the oldest waiter with fair hand-off
     public void giveBack(Node active) {
-        idleAndEmptyLock.lock();
+        if (lastGivenBack != null && !VirtualThreads.isVirtual(Thread.currentThread())) {
+            lastGivenBack.set(active);
+        }
 
-        try {
-            boolean empty = noIdleOrEmptyNode();
+        if (active.state != ACTIVE) {
+            return;
+        }
+
+        if (fairHandoff && handOff(active)) {
+            return;
+        }
+
+        if (active.compareAndSet(ACTIVE, IDLE)) {
+            completeAsyncWaiters();
+            signalNext();
+        }
+    }
+
+    // a reserved empty node becomes idle after its item got a new raw connection
+    public void pushToIdle(Node node) {
+        release(node, IDLE);
+    }
+
+    // a reserved empty node is not used, e.g. failed to create raw connection
+    public void returnEmptyNode(Node node) {
+        release(node, EMPTY);
+    }
+
+    private void release(Node node, int state) {
+        if (state == EMPTY) {
+            // waiters only take idle nodes, filling empty ones is up to the owner of the pool
+            node.state = EMPTY;
+            return;
+        }
 
-            activeLock.lock();
-            ++idleCount;
-            --activeCount;
-            move(active, idleHead);
-            activeLock.unlock();
+        if (fairHandoff) {
+            // a handed off node is ACTIVE for its new owner
+            node.state = ACTIVE;
 
-            if (empty) {
-                signalNotEmpty();
+            if (handOff(node)) {
+                return;
             }
-        } finally {
-            idleAndEmptyLock.unlock();
         }
+
+        node.state = IDLE;
+        completeAsyncWaiters();
+        signalNext();
     }
 
-    public void pushToActive(Node node) {
-        activeLock.lock();
-        insertAfter(node, activeHead);
-        ++activeCount;
-        activeLock.unlock();
+    // passes the node to the oldest parked waiter, false when there is none or an async waiter came
+    // first. the caller makes the node idle then, completeAsyncWaiters passes it on without recursing
+    private boolean handOff(Node node) {
+        while (true) {
+            Waiter head = waitQueue.peek();
+
+            if (head == null) {
+                return false;
+            }
+
+            AsyncWaiter asyncHead = asyncQueue.peek();
+
+            if (asyncHead != null && asyncHead.sequence - head.sequence < 0) {
+                return false;
+            }
+
+            Waiter waiter = waitQueue.poll();
+
+            if (waiter != null && waiter.compareAndSet(null, node)) {
+                LockSupport.unpark(waiter.thread);
+                return true;
+            }
+        }
     }
 
-    private void move(Node movingNode, Node toNode) {
-        remove(movingNode);
-        insertAfter(movingNode, toNode);
+    private void signalNext() {
+        if (waitQueue.isEmpty() || !signalling.compareAndSet(false, true)) {
+            return;
+        }
+
+        Waiter waiter;
+
+        while ((waiter = waitQueue.poll()) != null) {
+            if (signal(waiter)) {
+                return;
+            }
+        }
+
+        signalling.set(false);
     }
 
-    private Node remove(Node node) {
-        if (node.next != null) {
-            node.next.prev = node.prev;
+    private void signalIfAvailable() {
+        if (waitQueue.isEmpty()) {
+            return;
         }
-        if (node.prev != null) {
-            node.prev.next = node.next;
+
+        int limit = limit();
+        Node[] nodes = this.nodes;
+
+        for (int i = 0; i < limit; i++) {
+            if (nodes[i].state == IDLE) {
+                signalNext();
+                return;
+            }
         }
-        return node;
     }
 
-    private void insertAfter(Node node, Node to) {
-        Node n = to.next;
-        to.next = node;
-        node.prev = to;
-        node.next = n;
-        if (n != null) {
-            n.prev = node;
+    private boolean signal(Waiter waiter) {
+        if (waiter.compareAndSet(null, SIGNALLED)) {
+            LockSupport.unpark(waiter.thread);
+            return true;
         }
+        return false;
     }
 }
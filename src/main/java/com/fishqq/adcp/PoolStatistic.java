@@ -1,5 +1,131 @@
 package com.fishqq.adcp;
 
-public class PoolStatistic {
+/**
+ * Immutable state of a pool at one point. The node counts come from a single pass over the pool,
+ * so they add up to the pool size plus the nodes a shrink retired that still hold a connection,
+ * exporters should read all values from one snapshot instead of asking the pool for each of them.
+ */
+public final class PoolStatistic {
+    private final int idle;
+    private final int active;
+    private final int empty;
+    private final int reserved;
+    private final int waiters;
+    private final int creating;
+    private final int max;
+    private final int min;
+    private final int limit;
 
+    private final long created;
+    private final long closed;
+    private final long createErrors;
+    private final long invalid;
+    private final long timeouts;
+
+    PoolStatistic(int[] stateCounts, int waiters, int creating, int max, int min, int limit,
+                  long created, long closed, long createErrors, long invalid, long timeouts) {
+        this.idle = stateCounts[Pool.IDLE];
+        this.active = stateCounts[Pool.ACTIVE];
+        this.empty = stateCounts[Pool.EMPTY];
+        this.reserved = stateCounts[Pool.RESERVED];
+        this.waiters = waiters;
+        this.creating = creating;
+        this.max = max;
+        this.min = min;
+        this.limit = limit;
+        this.created = created;
+        this.closed = closed;
+        this.createErrors = createErrors;
+        this.invalid = invalid;
+        this.timeouts = timeouts;
+    }
+
+    public int getIdleCount() {
+        return idle;
+    }
+
+    public int getActiveCount() {
+        return active;
+    }
+
+    // idle plus active, connections being created or recycled are not counted
+    public int getTotalCount() {
+        return idle + active;
+    }
+
+    public int getEmptyCount() {
+        return empty;
+    }
+
+    // nodes between two states, e.g. being filled with a new connection or recycled
+    public int getReservedCount() {
+        return reserved;
+    }
+
+    // threads parked waiting for a connection
+    public int getWaiterCount() {
+        return waiters;
+    }
+
+    // connections requested from the filler and not yet done
+    public int getCreatingCount() {
+        return creating;
+    }
+
+    public int getMaxCount() {
+        return max;
+    }
+
+    public int getMinCount() {
+        return min;
+    }
+
+    // connections borrowers may use at once, below max while an adaptive limit holds it back.
+    // idle connections above it count as idle, they are kept for when the limit rises again
+    public int getLimitCount() {
+        return limit;
+    }
+
+    // raw connections created since the pool started
+    public long getCreatedTotal() {
+        return created;
+    }
+
+    // raw connections closed since the pool started
+    public long getClosedTotal() {
+        return closed;
+    }
+
+    public long getCreateErrorTotal() {
+        return createErrors;
+    }
+
+    // connections that failed validation, on borrow or in the background
+    public long getInvalidTotal() {
+        return invalid;
+    }
+
+    public long getTimeoutTotal() {
+        return timeouts;
+    }
+
+    @Override
+    public String toString() {
+        return "PoolStatistic{" +
+                "idle=" + idle +
+                ", active=" + active +
+                ", empty=" + empty +
+                ", reserved=" + reserved +
+                ", waiters=" + waiters +
+                ", creating=" + creating +
+                ", max=" + max +
+                ", min=" + min +
+                ", limit=" + limit +
+                ", created=" + created +
+                ", closed=" + closed +
+                ", createErrors=" + createErrors +
+                ", invalid=" + invalid +
+                ", timeouts=" + timeouts +
+                '}';
+    }
 }
@@ -8,6 +8,7 @@ import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.NClob;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLClientInfoException;
 import java.sql.SQLException;
 import java.sql.SQLWarning;
@@ -16,6 +17,7 @@ import java.sql.Savepoint;
 import java.sql.Statement;
 import java.sql.Struct;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
 import java.util.concurrent.Executor;
 
@@ -23,89 +25,173 @@ public class ProxyConnection implements Connection {
     private final long id;
     private Connection connection;
     private Runnable closeHandler;
+    private final StatementCache statementCache;
 
     private boolean isClosed;
+    // the session state could not be reset on close, the raw connection must not be used again
+    private boolean resetFailed;
 
+    // all times are nanos from the clock, ages use its coarse time
+    private final AdcpClock clock;
     private long createdAt;
+    private long expiresAt;
     private long lastUsingTime;
+    private long lastValidatedTime;
     private long startUsingTime;
     private Thread usingThread;
 
-    private Boolean originAutoCommit;
-    private Boolean originReadOnly;
-    private Integer originIsolationLevel;
-    private String originCatalog;
-    private String originSchema;
+    private static final int AUTO_COMMIT = 1;
+    private static final int READ_ONLY = 1 << 1;
+    private static final int ISOLATION = 1 << 2;
+    private static final int CATALOG = 1 << 3;
+    private static final int SCHEMA = 1 << 4;
+
+    // the state is read from the driver once per raw connection, from then on the getters answer
+    // locally and setters skip the driver when nothing changes. changing the state by executing sql
+    // or through the unwrapped raw connection is not seen here
+    private int knownBits;
+    // attributes that differ from the default, close() only resets these
+    private int dirtyBits;
+
+    private boolean autoCommit;
+    private boolean readOnly;
+    private int isolationLevel;
+    private String catalog;
+    private String schema;
+
+    private boolean defaultAutoCommit;
+    private boolean defaultReadOnly;
+    private int defaultIsolationLevel;
+    private String defaultCatalog;
+    private String defaultSchema;
 
     public ProxyConnection(long id, Thread usingThread, Connection connection, Runnable closeHandler) {
+        this(id, usingThread, connection, closeHandler, null, AdcpClock.SYSTEM);
+    }
+
+    // statementCache is null when statement caching is disabled
+    public ProxyConnection(long id, Thread usingThread, Connection connection, Runnable closeHandler,
+                           StatementCache statementCache, AdcpClock clock) {
         this.id = id;
+        this.statementCache = statementCache;
+        this.clock = clock;
         this.connection = connection;
         this.closeHandler = closeHandler;
-        this.createdAt = System.currentTimeMillis();
+        this.createdAt = clock.coarseNanoTime();
+        this.expiresAt = this.createdAt + Long.MAX_VALUE / 2;
         this.lastUsingTime = this.createdAt;
+        this.lastValidatedTime = this.createdAt;
         this.startUsingTime = this.createdAt;
         this.usingThread = usingThread;
     }
 
     public void reset() {
+        if (this.statementCache != null) {
+            // the cached statements go away with the raw connection
+            this.statementCache.clear(false);
+        }
+
         this.connection = null;
         this.closeHandler = null;
+        this.resetFailed = false;
 
-        this.originAutoCommit = null;
-        this.originReadOnly = null;
-        this.originIsolationLevel = null;
-        this.originCatalog = null;
-        this.originSchema = null;
+        this.knownBits = 0;
+        this.dirtyBits = 0;
+        this.catalog = null;
+        this.schema = null;
+        this.defaultCatalog = null;
+        this.defaultSchema = null;
     }
 
     public void useNewRawConnection(Thread usingThread, Connection connection, Runnable closeHandler) {
+        if (this.statementCache != null) {
+            this.statementCache.clear(false);
+        }
+
         this.connection = connection;
         this.closeHandler = closeHandler;
 
         this.isClosed = false;
+        this.resetFailed = false;
+        this.knownBits = 0;
+        this.dirtyBits = 0;
 
-        this.createdAt = System.currentTimeMillis();
+        this.createdAt = clock.coarseNanoTime();
+        this.expiresAt = this.createdAt + Long.MAX_VALUE / 2;
         this.lastUsingTime = this.createdAt;
+        this.lastValidatedTime = this.createdAt;
         this.startUsingTime = this.createdAt;
         this.usingThread = usingThread;
     }
 
-    public void setUsingBy(Thread thread) {
+    public void setUsingBy(Thread thread, long nowNanos) {
+        this.isClosed = false;
         this.usingThread = thread;
-        this.startUsingTime = System.currentTimeMillis();
+        this.startUsingTime = nowNanos;
     }
 
     public Thread getUsingThread() {
         return this.usingThread;
     }
 
-    public long getStartUsingTime() {
+    public long getStartUsingNanos() {
         return this.startUsingTime;
     }
 
-    public long getUsedTime() {
-        return System.currentTimeMillis() - startUsingTime;
+    public long getCreatedAtNanos() {
+        return createdAt;
     }
 
-    public long getCreatedAt() {
-        return createdAt;
+    public long getExpiresAtNanos() {
+        return expiresAt;
+    }
+
+    public void setExpiresAtNanos(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    public boolean isExpired(long nowNanos) {
+        return nowNanos - expiresAt >= 0;
     }
 
     void resetStatus() throws SQLException {
-        if (this.originAutoCommit != null) {
-            this.connection.setAutoCommit(originAutoCommit);
+        if (this.dirtyBits == 0) {
+            return;
         }
-        if (this.originReadOnly != null) {
-            this.connection.setReadOnly(originReadOnly);
+
+        // an attribute stays dirty until its reset went through
+        if ((this.dirtyBits & AUTO_COMMIT) != 0) {
+            this.connection.setAutoCommit(defaultAutoCommit);
+            this.autoCommit = defaultAutoCommit;
+            this.dirtyBits &= ~AUTO_COMMIT;
         }
-        if (this.originIsolationLevel != null) {
-            this.connection.setTransactionIsolation(originIsolationLevel);
+        if ((this.dirtyBits & READ_ONLY) != 0) {
+            this.connection.setReadOnly(defaultReadOnly);
+            this.readOnly = defaultReadOnly;
+            this.dirtyBits &= ~READ_ONLY;
         }
-        if (this.originCatalog != null) {
-            this.connection.setCatalog(originCatalog);
+        if ((this.dirtyBits & ISOLATION) != 0) {
+            this.connection.setTransactionIsolation(defaultIsolationLevel);
+            this.isolationLevel = defaultIsolationLevel;
+            this.dirtyBits &= ~ISOLATION;
         }
-        if (this.originSchema != null) {
-            this.connection.setSchema(originSchema);
+        if ((this.dirtyBits & CATALOG) != 0) {
+            this.connection.setCatalog(defaultCatalog);
+            this.catalog = defaultCatalog;
+            this.dirtyBits &= ~CATALOG;
+        }
+        if ((this.dirtyBits & SCHEMA) != 0) {
+            this.connection.setSchema(defaultSchema);
+            this.schema = defaultSchema;
+            this.dirtyBits &= ~SCHEMA;
+        }
+    }
+
+    private void markChanged(int bit, boolean isDefault) {
+        if (isDefault) {
+            this.dirtyBits &= ~bit;
+        } else {
+            this.dirtyBits |= bit;
         }
     }
 
@@ -113,17 +199,44 @@ public class ProxyConnection implements Connection {
         return this.connection;
     }
 
-    public long getIdleMs() {
-        return System.currentTimeMillis() - this.lastUsingTime;
+    public long getIdleNanos() {
+        return clock.coarseNanoTime() - this.lastUsingTime;
+    }
+
+    public void setValidated(long nowNanos) {
+        this.lastValidatedTime = nowNanos;
+    }
+
+    // since the connection was last known to work: created, validated or given back after use
+    public long getUnverifiedNanos() {
+        long lastAlive = lastValidatedTime - lastUsingTime > 0 ? lastValidatedTime : lastUsingTime;
+        return clock.coarseNanoTime() - lastAlive;
     }
 
     @Override
     public final void close() throws SQLException {
+        // a second close of the same borrow is a no-op. the proxy is reused to keep borrows allocation free,
+        // so a close after the connection was borrowed again can't be told from the new holder's own close
+        if (this.isClosed) {
+            return;
+        }
         this.isClosed = true;
-        this.lastUsingTime = System.currentTimeMillis();
+        this.lastUsingTime = clock.coarseNanoTime();
+
+        // reset before the connection goes back, another thread may take it right away. a connection in an
+        // unknown state is closed by the handler instead
+        try {
+            this.resetStatus();
+        } catch (SQLException | RuntimeException e) {
+            this.resetFailed = true;
+            throw e;
+        } finally {
+            this.closeHandler.run();
+        }
+    }
 
-        this.closeHandler.run();
-        this.resetStatus();
+    public boolean isResetFailed() {
+        return this.resetFailed;
     }
 
     @Override
@@ -219,7 +332,16 @@ public class ProxyConnection implements Connection {
      */
     @Override
     public PreparedStatement prepareStatement(String sql) throws SQLException {
-        return this.connection.prepareStatement(sql);
+        if (this.statementCache == null || !this.statementCache.isCacheable(sql)) {
+            return this.connection.prepareStatement(sql);
+        }
+
+        StatementCache.Key key = new StatementCache.Key(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY, -1, -1, null, null);
+        PreparedStatement statement = this.statementCache.take(key);
+        if (statement == null) {
+            statement = this.connection.prepareStatement(sql);
+        }
+        return new ProxyPreparedStatement(this, statement, this.statementCache, key);
     }
 
     /**
@@ -227,7 +349,16 @@ public class ProxyConnection implements Connection {
      */
     @Override
     public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
-        return this.connection.prepareStatement(sql, autoGeneratedKeys);
+        if (this.statementCache == null || !this.statementCache.isCacheable(sql)) {
+            return this.connection.prepareStatement(sql, autoGeneratedKeys);
+        }
+
+        StatementCache.Key key = new StatementCache.Key(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY, -1, autoGeneratedKeys, null, null);
+        PreparedStatement statement = this.statementCache.take(key);
+        if (statement == null) {
+            statement = this.connection.prepareStatement(sql, autoGeneratedKeys);
+        }
+        return new ProxyPreparedStatement(this, statement, this.statementCache, key);
     }
 
     /**
@@ -235,7 +366,16 @@ public class ProxyConnection implements Connection {
      */
     @Override
     public PreparedStatement prepareStatement(String sql, int resultSetType, int concurrency) throws SQLException {
-        return this.connection.prepareStatement(sql, resultSetType, concurrency);
+        if (this.statementCache == null || !this.statementCache.isCacheable(sql)) {
+            return this.connection.prepareStatement(sql, resultSetType, concurrency);
+        }
+
+        StatementCache.Key key = new StatementCache.Key(sql, resultSetType, concurrency, -1, -1, null, null);
+        PreparedStatement statement = this.statementCache.take(key);
+        if (statement == null) {
+            statement = this.connection.prepareStatement(sql, resultSetType, concurrency);
+        }
+        return new ProxyPreparedStatement(this, statement, this.statementCache, key);
     }
 
     /**
@@ -243,7 +383,16 @@ public class ProxyConnection implements Connection {
      */
     @Override
     public PreparedStatement prepareStatement(String sql, int resultSetType, int concurrency, int horiginability) throws SQLException {
-        return this.connection.prepareStatement(sql, resultSetType, concurrency, horiginability);
+        if (this.statementCache == null || !this.statementCache.isCacheable(sql)) {
+            return this.connection.prepareStatement(sql, resultSetType, concurrency, horiginability);
+        }
+
+        StatementCache.Key key = new StatementCache.Key(sql, resultSetType, concurrency, horiginability, -1, null, null);
+        PreparedStatement statement = this.statementCache.take(key);
+        if (statement == null) {
+            statement = this.connection.prepareStatement(sql, resultSetType, concurrency, horiginability);
+        }
+        return new ProxyPreparedStatement(this, statement, this.statementCache, key);
     }
 
     /**
@@ -251,7 +400,16 @@ public class ProxyConnection implements Connection {
      */
     @Override
     public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
-        return this.connection.prepareStatement(sql, columnIndexes);
+        if (this.statementCache == null || !this.statementCache.isCacheable(sql)) {
+            return this.connection.prepareStatement(sql, columnIndexes);
+        }
+
+        StatementCache.Key key = new StatementCache.Key(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY, -1, -1, columnIndexes, null);
+        PreparedStatement statement = this.statementCache.take(key);
+        if (statement == null) {
+            statement = this.connection.prepareStatement(sql, columnIndexes);
+        }
+        return new ProxyPreparedStatement(this, statement, this.statementCache, key);
     }
 
     /**
@@ -259,7 +417,16 @@ public class ProxyConnection implements Connection {
      */
     @Override
     public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException {
-        return this.connection.prepareStatement(sql, columnNames);
+        if (this.statementCache == null || !this.statementCache.isCacheable(sql)) {
+            return this.connection.prepareStatement(sql, columnNames);
+        }
+
+        StatementCache.Key key = new StatementCache.Key(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY, -1, -1, null, columnNames);
+        PreparedStatement statement = this.statementCache.take(key);
+        if (statement == null) {
+            statement = this.connection.prepareStatement(sql, columnNames);
+        }
+        return new ProxyPreparedStatement(this, statement, this.statementCache, key);
     }
 
     @Override
@@ -359,20 +526,21 @@ public class ProxyConnection implements Connection {
      */
     @Override
     public void setAutoCommit(boolean autoCommit) throws SQLException {
-        if (this.originAutoCommit == null) {
-            boolean tempAutoCommit = this.connection.getAutoCommit();
-            if (tempAutoCommit != autoCommit) {
-                this.connection.setAutoCommit(autoCommit);
-                this.originAutoCommit = autoCommit;
-            }
-        } else {
-            this.connection.setAutoCommit(autoCommit);
+        if (getAutoCommit() == autoCommit) {
+            return;
         }
+        this.connection.setAutoCommit(autoCommit);
+        this.autoCommit = autoCommit;
+        markChanged(AUTO_COMMIT, autoCommit == defaultAutoCommit);
     }
 
     @Override
     public boolean getAutoCommit() throws SQLException {
-        return this.connection.getAutoCommit();
+        if ((this.knownBits & AUTO_COMMIT) == 0) {
+            this.autoCommit = this.defaultAutoCommit = this.connection.getAutoCommit();
+            this.knownBits |= AUTO_COMMIT;
+        }
+        return this.autoCommit;
     }
 
     /**
@@ -380,20 +548,21 @@ public class ProxyConnection implements Connection {
      */
     @Override
     public void setReadOnly(boolean readOnly) throws SQLException {
-        if (this.originReadOnly == null) {
-            boolean tempReadOnly = this.connection.isReadOnly();
-            if (tempReadOnly != readOnly) {
-                this.connection.setReadOnly(readOnly);
-                this.originReadOnly = tempReadOnly;
-            }
-        } else {
-            this.connection.setReadOnly(readOnly);
+        if (isReadOnly() == readOnly) {
+            return;
         }
+        this.connection.setReadOnly(readOnly);
+        this.readOnly = readOnly;
+        markChanged(READ_ONLY, readOnly == defaultReadOnly);
     }
 
     @Override
     public boolean isReadOnly() throws SQLException {
-        return this.connection.isReadOnly();
+        if ((this.knownBits & READ_ONLY) == 0) {
+            this.readOnly = this.defaultReadOnly = this.connection.isReadOnly();
+            this.knownBits |= READ_ONLY;
+        }
+        return this.readOnly;
     }
 
     /**
@@ -401,20 +570,21 @@ public class ProxyConnection implements Connection {
      */
     @Override
     public void setTransactionIsolation(int level) throws SQLException {
-        if (this.originIsolationLevel == null) {
-            int tempIsolationLevel = this.connection.getTransactionIsolation();
-            if (tempIsolationLevel != level) {
-                this.connection.setTransactionIsolation(level);
-                this.originIsolationLevel = level;
-            }
-        } else {
-            this.connection.setTransactionIsolation(level);
+        if (getTransactionIsolation() == level) {
+            return;
         }
+        this.connection.setTransactionIsolation(level);
+        this.isolationLevel = level;
+        markChanged(ISOLATION, level == defaultIsolationLevel);
     }
 
     @Override
     public int getTransactionIsolation() throws SQLException {
-        return this.connection.getTransactionIsolation();
+        if ((this.knownBits & ISOLATION) == 0) {
+            this.isolationLevel = this.defaultIsolationLevel = this.connection.getTransactionIsolation();
+            this.knownBits |= ISOLATION;
+        }
+        return this.isolationLevel;
     }
 
     @Override
@@ -432,20 +602,21 @@ public class ProxyConnection implements Connection {
      */
     @Override
     public void setCatalog(String catalog) throws SQLException {
-        if (this.originCatalog == null) {
-            String tempCatalog = this.connection.getCatalog();
-            if (catalog.equals(tempCatalog)) {
-                this.connection.setCatalog(catalog);
-                this.originCatalog = tempCatalog;
-            }
-        } else {
-            this.connection.setCatalog(catalog);
+        if (Objects.equals(getCatalog(), catalog)) {
+            return;
         }
+        this.connection.setCatalog(catalog);
+        this.catalog = catalog;
+        markChanged(CATALOG, Objects.equals(catalog, defaultCatalog));
     }
 
     @Override
     public String getCatalog() throws SQLException {
-        return this.connection.getCatalog();
+        if ((this.knownBits & CATALOG) == 0) {
+            this.catalog = this.defaultCatalog = this.connection.getCatalog();
+            this.knownBits |= CATALOG;
+        }
+        return this.catalog;
     }
 
     /**
@@ -466,20 +637,21 @@ public class ProxyConnection implements Connection {
      */
     @Override
     public void setSchema(String schema) throws SQLException {
-        if (this.originSchema == null) {
-            String tempSchema = this.connection.getSchema();
-            if (schema.equals(tempSchema)) {
-                this.connection.setSchema(schema);
-                this.originSchema = schema;
-            }
-        } else {
-            this.connection.setSchema(schema);
+        if (Objects.equals(getSchema(), schema)) {
+            return;
         }
+        this.connection.setSchema(schema);
+        this.schema = schema;
+        markChanged(SCHEMA, Objects.equals(schema, defaultSchema));
     }
 
     @Override
     public String getSchema() throws SQLException {
-        return this.connection.getSchema();
+        if ((this.knownBits & SCHEMA) == 0) {
+            this.schema = this.defaultSchema = this.connection.getSchema();
+            this.knownBits |= SCHEMA;
+        }
+        return this.schema;
     }
 
     @Override
@@ -0,0 +1,54 @@
+package com.fishqq.adcp;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Runs a validation query, e.g. SELECT 1, prepared once per connection and kept until the pool
+ * closes the connection.
+ */
+public class QueryConnectionValidator implements ConnectionValidator {
+    private final String query;
+    private final Map<Connection, PreparedStatement> statements = new ConcurrentHashMap<>();
+
+    public QueryConnectionValidator(String query) {
+        this.query = query;
+    }
+
+    @Override
+    public boolean isValid(Connection connection, int timeoutMs) throws SQLException {
+        PreparedStatement statement = statements.get(connection);
+
+        if (statement == null || statement.isClosed()) {
+            statement = connection.prepareStatement(query);
+            statements.put(connection, statement);
+        }
+
+        // the network timeout doesn't reach every driver, a query timeout at least stops a slow server
+        statement.setQueryTimeout(ConnectionValidator.toSeconds(timeoutMs));
+
+        if (statement.execute()) {
+            ResultSet resultSet = statement.getResultSet();
+            if (resultSet != null) {
+                resultSet.close();
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public void onClose(Connection connection) {
+        // closed together with its connection
+        statements.remove(connection);
+    }
+
+    @Override
+    public String toString() {
+        return "QueryConnectionValidator{" + query + '}';
+    }
+}
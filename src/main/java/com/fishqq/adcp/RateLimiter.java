@@ -0,0 +1,49 @@
+package com.fishqq.adcp;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// hands out permits evenly spaced at the configured rate, callers sleep until their slot
+public class RateLimiter {
+    private final AdcpClock clock;
+    private final long intervalNanos;
+    private final AtomicLong nextFreeNanos;
+
+    public RateLimiter(double permitsPerSecond) {
+        this(permitsPerSecond, AdcpClock.SYSTEM);
+    }
+
+    public RateLimiter(double permitsPerSecond, AdcpClock clock) {
+        this.clock = clock;
+        this.intervalNanos = permitsPerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond) : 0;
+        this.nextFreeNanos = new AtomicLong(clock.nanoTime());
+    }
+
+    public void acquire() throws InterruptedException {
+        long waitNanos = reserve();
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    // takes the next slot, returns how long until it comes
+    long reserve() {
+        if (intervalNanos <= 0) {
+            return 0;
+        }
+
+        long now = clock.nanoTime();
+        long slot;
+
+        while (true) {
+            long next = nextFreeNanos.get();
+            slot = next - now > 0 ? next : now;
+
+            if (nextFreeNanos.compareAndSet(next, slot + intervalNanos)) {
+                break;
+            }
+        }
+
+        return slot - now;
+    }
+}
@@ -1,22 +1,68 @@
 package com.fishqq.adcp;
 
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.AbstractQueuedSynchronizer;
 
+/**
+ * Non-reentrant lock for very short critical sections: spins a bounded number of times with
+ * exponential backoff, then queues and parks like a normal lock, so a descheduled holder never
+ * makes the contending threads burn a whole core. Virtual threads never spin, spinning would
+ * hold on to the carrier thread other virtual threads need; they park right away.
+ */
 public class SpinLock {
-    private final AtomicBoolean state = new AtomicBoolean(false);
+    private static final int MAX_SPINS = 16;
+    private static final int MAX_BACKOFF = 256;
+
+    private final Sync sync = new Sync();
+
+    private static final class Sync extends AbstractQueuedSynchronizer {
+        @Override
+        protected boolean tryAcquire(int ignore) {
+            return getState() == 0 && compareAndSetState(0, 1);
+        }
+
+        @Override
+        protected boolean tryRelease(int ignore) {
+            setState(0);
+            return true;
+        }
+
+        boolean isLocked() {
+            return getState() != 0;
+        }
+    }
 
     public void lock() {
-        while (true) {
-            while (state.get()) {
+        if (sync.tryAcquire(1)) {
+            return;
+        }
+
+        if (VirtualThreads.isVirtual(Thread.currentThread())) {
+            sync.acquire(1);
+            return;
+        }
+
+        int backoff = 1;
+
+        for (int spins = 0; spins < MAX_SPINS; spins++) {
+            for (int i = 0; i < backoff; i++) {
+                SpinWait.onSpinWait();
             }
 
-            if (!state.getAndSet(true)) {
+            if (!sync.isLocked() && sync.tryAcquire(1)) {
                 return;
             }
+
+            backoff = Math.min(backoff << 1, MAX_BACKOFF);
         }
+
+        sync.acquire(1);
+    }
+
+    public boolean tryLock() {
+        return sync.tryAcquire(1);
     }
 
     public void unlock() {
-        state.set(false);
+        sync.release(1);
     }
 }
@@ -0,0 +1,10 @@
+package com.fishqq.adcp;
+
+// java 8 has no spin hint, the jdk 9+ variant in META-INF/versions/9 calls Thread.onSpinWait()
+final class SpinWait {
+    private SpinWait() {
+    }
+
+    static void onSpinWait() {
+    }
+}
@@ -0,0 +1,225 @@
+package com.fishqq.adcp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * LRU cache of prepared statements of one raw connection. A statement is removed from the cache
+ * while it is checked out, so the same statement is never handed to two callers, and it comes back
+ * through {@link ProxyPreparedStatement#close()}. Statements are closed when evicted or when the
+ * cache is cleared.
+ */
+public class StatementCache {
+    private final static Logger logger = LoggerFactory.getLogger(StatementCache.class);
+
+    private final int maxSize;
+    private final int maxSqlLength;
+    private final AdcpMonitor monitor;
+
+    // a proxy statement may be closed after its connection went back to the pool, guard the map
+    // but never call into the driver while holding the lock
+    private final SpinLock lock = new SpinLock();
+    private final LinkedHashMap<Key, PreparedStatement> statements;
+    private final List<PreparedStatement> evicted = new ArrayList<>();
+
+    // bumped on clear, statements checked out before that belong to a previous raw connection
+    private volatile int generation;
+
+    public StatementCache(int maxSize, int maxSqlLength, AdcpMonitor monitor) {
+        this.maxSize = maxSize;
+        this.maxSqlLength = maxSqlLength;
+        this.monitor = monitor;
+        this.statements = new LinkedHashMap<Key, PreparedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, PreparedStatement> eldest) {
+                if (size() <= StatementCache.this.maxSize) {
+                    return false;
+                }
+                evicted.add(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    public boolean isCacheable(String sql) {
+        return sql != null && sql.length() <= maxSqlLength;
+    }
+
+    // the cached statement for the key or null, the caller prepares a new one on a miss
+    public PreparedStatement take(Key key) {
+        PreparedStatement statement;
+
+        lock.lock();
+        try {
+            statement = statements.remove(key);
+        } finally {
+            lock.unlock();
+        }
+
+        if (statement != null) {
+            monitor.recordStatementCacheHit();
+        } else {
+            monitor.recordStatementCacheMiss();
+        }
+
+        return statement;
+    }
+
+    public int generation() {
+        return generation;
+    }
+
+    public void giveBack(Key key, PreparedStatement statement, int generation) {
+        if (generation != this.generation) {
+            closeQuietly(statement);
+            return;
+        }
+
+        try {
+            if (statement.isClosed()) {
+                return;
+            }
+
+            // what closing the statement would have done to its results
+            ResultSet resultSet = statement.getResultSet();
+            if (resultSet != null) {
+                resultSet.close();
+            }
+            statement.clearParameters();
+            statement.clearBatch();
+        } catch (SQLException e) {
+            logger.debug("failed to reset cached statement, close it", e);
+            closeQuietly(statement);
+            return;
+        }
+
+        PreparedStatement replaced;
+        List<PreparedStatement> toClose = null;
+
+        lock.lock();
+        try {
+            // cleared while resetting the statement
+            replaced = generation == this.generation ? statements.put(key, statement) : statement;
+            if (!evicted.isEmpty()) {
+                toClose = new ArrayList<>(evicted);
+                evicted.clear();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        // the same sql was prepared twice at once, keep the newer one
+        if (replaced != null) {
+            closeQuietly(replaced);
+        }
+
+        if (toClose != null) {
+            for (PreparedStatement s : toClose) {
+                monitor.recordStatementCacheEviction();
+                closeQuietly(s);
+            }
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return statements.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // forget all cached statements, closeStatements is false when the raw connection is gone anyway
+    public void clear(boolean closeStatements) {
+        List<PreparedStatement> toClose;
+
+        lock.lock();
+        try {
+            toClose = closeStatements ? new ArrayList<>(statements.values()) : null;
+            statements.clear();
+            evicted.clear();
+            generation++;
+        } finally {
+            lock.unlock();
+        }
+
+        if (toClose != null) {
+            toClose.forEach(StatementCache::closeQuietly);
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            logger.debug("failed to close cached statement", e);
+        }
+    }
+
+    public static final class Key {
+        // holdability and generated keys are -1 when the caller didn't ask for them
+        private final String sql;
+        private final int resultSetType;
+        private final int concurrency;
+        private final int holdability;
+        private final int autoGeneratedKeys;
+        private final int[] columnIndexes;
+        private final String[] columnNames;
+        private final int hash;
+
+        public Key(String sql, int resultSetType, int concurrency, int holdability,
+                   int autoGeneratedKeys, int[] columnIndexes, String[] columnNames) {
+            this.sql = sql;
+            this.resultSetType = resultSetType;
+            this.concurrency = concurrency;
+            this.holdability = holdability;
+            this.autoGeneratedKeys = autoGeneratedKeys;
+            this.columnIndexes = columnIndexes == null ? null : columnIndexes.clone();
+            this.columnNames = columnNames == null ? null : columnNames.clone();
+
+            int h = sql.hashCode();
+            h = 31 * h + resultSetType;
+            h = 31 * h + concurrency;
+            h = 31 * h + holdability;
+            h = 31 * h + autoGeneratedKeys;
+            h = 31 * h + Arrays.hashCode(this.columnIndexes);
+            h = 31 * h + Arrays.hashCode(this.columnNames);
+            this.hash = h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return hash == key.hash
+                    && resultSetType == key.resultSetType
+                    && concurrency == key.concurrency
+                    && holdability == key.holdability
+                    && autoGeneratedKeys == key.autoGeneratedKeys
+                    && Objects.equals(sql, key.sql)
+                    && Arrays.equals(columnIndexes, key.columnIndexes)
+                    && Arrays.equals(columnNames, key.columnNames);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.fishqq.adcp;
+
+// java 8 has no virtual threads, the jdk 21+ variant in META-INF/versions/21 asks Thread.isVirtual()
+final class VirtualThreads {
+    private VirtualThreads() {
+    }
+
+    static boolean isVirtual(Thread thread) {
+        return false;
+    }
+}
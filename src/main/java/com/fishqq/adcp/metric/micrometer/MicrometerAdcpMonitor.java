@@ -2,12 +2,15 @@ package com.fishqq.adcp.metric.micrometer;
 
 import com.fishqq.adcp.AdcpMetrics;
 import com.fishqq.adcp.AdcpMonitor;
+import com.fishqq.adcp.CircuitBreaker;
+import com.fishqq.adcp.PoolStatistic;
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Timer;
 
 import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
 
 public class MicrometerAdcpMonitor implements AdcpMonitor {
     private final String poolName;
@@ -18,32 +21,55 @@ public class MicrometerAdcpMonitor implements AdcpMonitor {
     private static final String METRIC_NAME_WAIT_CREATE = METRIC_NAME_PREFIX + ".connections.wait.create";
     private static final String METRIC_NAME_USAGE = METRIC_NAME_PREFIX + ".connections.usage";
     private static final String METRIC_NAME_CONNECT = METRIC_NAME_PREFIX + ".connections.creation";
+    private static final String METRIC_NAME_HOUSEKEEPING = METRIC_NAME_PREFIX + ".housekeeping";
+    private static final String METRIC_NAME_VALIDATION = METRIC_NAME_PREFIX + ".connections.validation";
 
     private static final String METRIC_NAME_TIMEOUT_RATE = METRIC_NAME_PREFIX + ".connections.timeout";
     private static final String METRIC_NAME_INVALID_CONNECTION_RATE = METRIC_NAME_PREFIX + ".connections.invalid";
     private static final String METRIC_NAME_CONNECTION_CREATE_ERROR_RATE = METRIC_NAME_PREFIX + ".connections.create.error";
     private static final String METRIC_NAME_CONNECTION_WAIT_RATE = METRIC_NAME_PREFIX + ".connections.wait";
+    private static final String METRIC_NAME_STATEMENT_CACHE = METRIC_NAME_PREFIX + ".statements.cache";
     private static final String METRIC_NAME_TOTAL_CONNECTIONS = METRIC_NAME_PREFIX + ".connections";
     private static final String METRIC_NAME_IDLE_CONNECTIONS = METRIC_NAME_PREFIX + ".connections.idle";
     private static final String METRIC_NAME_ACTIVE_CONNECTIONS = METRIC_NAME_PREFIX + ".connections.active";
     private static final String METRIC_NAME_PENDING_CONNECTIONS = METRIC_NAME_PREFIX + ".connections.pending";
     private static final String METRIC_NAME_MAX_CONNECTIONS = METRIC_NAME_PREFIX + ".connections.max";
     private static final String METRIC_NAME_MIN_CONNECTIONS = METRIC_NAME_PREFIX + ".connections.min";
+    private static final String METRIC_NAME_CIRCUIT_BREAKER_STATE = METRIC_NAME_PREFIX + ".circuit.breaker.state";
+    private static final String METRIC_NAME_CIRCUIT_BREAKER_TRANSITIONS = METRIC_NAME_PREFIX + ".circuit.breaker.transitions";
+    private static final String METRIC_NAME_CREATING_CONNECTIONS = METRIC_NAME_PREFIX + ".connections.creating";
+    private static final String METRIC_NAME_LIMIT_CONNECTIONS = METRIC_NAME_PREFIX + ".connections.limit";
+
+    // gauges of one publication are read within this, so they all see the same snapshot
+    private static final long SNAPSHOT_MAX_AGE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
 
     private final Timer connectionAcquireTimer;
     private final Timer connectionUsageTimer;
     private final Timer connectionCreationTimer;
     private final Timer connectionWaitCreateTimer;
+    private final Timer housekeepingTimer;
+    private final Timer validationTimer;
     private final Counter connectionTimeoutCounter;
     private final Counter invalidConnectionCounter;
     private final Counter connectionCreateErrorCounter;
     private final Counter connectionWaitCreateCounter;
+    private final Counter statementCacheHitCounter;
+    private final Counter statementCacheMissCounter;
+    private final Counter statementCacheEvictionCounter;
+    private final Counter[] circuitBreakerTransitionCounters;
+    private final Gauge circuitBreakerStateGauge;
+    private volatile CircuitBreaker.State circuitBreakerState = CircuitBreaker.State.CLOSED;
     private Gauge totalConnectionGauge;
     private Gauge idleConnectionGauge;
     private Gauge activeConnectionGauge;
     private Gauge pendingConnectionGauge;
     private Gauge maxConnectionGauge;
     private Gauge minConnectionGauge;
+    private Gauge creatingConnectionGauge;
+    private Gauge limitConnectionGauge;
+    private AdcpMetrics metrics;
+    private PoolStatistic statistic;
+    private long statisticTakenAt;
     private final MeterRegistry meterRegistry;
 
     public MicrometerAdcpMonitor(String poolName, MeterRegistry meterRegistry) {
@@ -70,6 +96,16 @@ public class MicrometerAdcpMonitor implements AdcpMonitor {
                 .tags(METRIC_CATEGORY, poolName)
                 .register(meterRegistry);
 
+        this.housekeepingTimer = Timer.builder(METRIC_NAME_HOUSEKEEPING)
+                .description("Housekeeping run time")
+                .tags(METRIC_CATEGORY, poolName)
+                .register(meterRegistry);
+
+        this.validationTimer = Timer.builder(METRIC_NAME_VALIDATION)
+                .description("Connection validation time")
+                .tags(METRIC_CATEGORY, poolName)
+                .register(meterRegistry);
+
         this.connectionTimeoutCounter = Counter.builder(METRIC_NAME_TIMEOUT_RATE)
                 .description("Connection timeout total count")
                 .tags(METRIC_CATEGORY, poolName)
@@ -89,55 +125,87 @@ public class MicrometerAdcpMonitor implements AdcpMonitor {
                 .description("Connection wait create count")
                 .tags(METRIC_CATEGORY, poolName)
                 .register(meterRegistry);
-    }
 
-    @Override
-    public void initMetrics(AdcpMetrics metrics) {
-        this.totalConnectionGauge = Gauge.builder(
-                        METRIC_NAME_TOTAL_CONNECTIONS, metrics, AdcpMetrics::getTotalConnectionCount)
-                .description("Total connections")
-                .tags(METRIC_CATEGORY, poolName)
+        this.statementCacheHitCounter = Counter.builder(METRIC_NAME_STATEMENT_CACHE)
+                .description("Statement cache lookups and evictions")
+                .tags(METRIC_CATEGORY, poolName, "result", "hit")
                 .register(meterRegistry);
 
-        this.idleConnectionGauge = Gauge.builder(
-                        METRIC_NAME_IDLE_CONNECTIONS, metrics, AdcpMetrics::getIdleConnectionCount)
-                .description("Idle connections")
-                .tags(METRIC_CATEGORY, poolName)
+        this.statementCacheMissCounter = Counter.builder(METRIC_NAME_STATEMENT_CACHE)
+                .description("Statement cache lookups and evictions")
+                .tags(METRIC_CATEGORY, poolName, "result", "miss")
                 .register(meterRegistry);
 
-        this.activeConnectionGauge = Gauge.builder(
-                        METRIC_NAME_ACTIVE_CONNECTIONS, metrics, AdcpMetrics::getActiveConnectionCount)
-                .description("Active connections")
-                .tags(METRIC_CATEGORY, poolName)
+        this.statementCacheEvictionCounter = Counter.builder(METRIC_NAME_STATEMENT_CACHE)
+                .description("Statement cache lookups and evictions")
+                .tags(METRIC_CATEGORY, poolName, "result", "eviction")
                 .register(meterRegistry);
 
-        this.pendingConnectionGauge = Gauge.builder(
-                        METRIC_NAME_PENDING_CONNECTIONS, metrics, AdcpMetrics::getPendingThreadCount)
-                .description("Pending threads")
-                .tags(METRIC_CATEGORY, poolName)
-                .register(meterRegistry);
+        CircuitBreaker.State[] states = CircuitBreaker.State.values();
+        this.circuitBreakerTransitionCounters = new Counter[states.length];
+        for (CircuitBreaker.State state : states) {
+            circuitBreakerTransitionCounters[state.ordinal()] = Counter.builder(METRIC_NAME_CIRCUIT_BREAKER_TRANSITIONS)
+                    .description("Circuit breaker transitions by new state")
+                    .tags(METRIC_CATEGORY, poolName, "state", state.name().toLowerCase())
+                    .register(meterRegistry);
+        }
 
-        this.maxConnectionGauge = Gauge.builder(
-                        METRIC_NAME_MAX_CONNECTIONS, metrics, AdcpMetrics::getMaxConnectionCount)
-                .description("Max connections")
+        this.circuitBreakerStateGauge = Gauge.builder(
+                        METRIC_NAME_CIRCUIT_BREAKER_STATE, this, monitor -> monitor.circuitBreakerState.ordinal())
+                .description("Circuit breaker state, 0 closed, 1 open, 2 half open")
                 .tags(METRIC_CATEGORY, poolName)
                 .register(meterRegistry);
+    }
 
-        this.minConnectionGauge = Gauge.builder(
-                        METRIC_NAME_MIN_CONNECTIONS, metrics, AdcpMetrics::getMinConnectionCount)
-                .description("Min idle connections")
+    @Override
+    public void initMetrics(AdcpMetrics metrics) {
+        this.metrics = metrics;
+
+        this.totalConnectionGauge = registerGauge(
+                METRIC_NAME_TOTAL_CONNECTIONS, "Total connections", PoolStatistic::getTotalCount);
+        this.idleConnectionGauge = registerGauge(
+                METRIC_NAME_IDLE_CONNECTIONS, "Idle connections", PoolStatistic::getIdleCount);
+        this.activeConnectionGauge = registerGauge(
+                METRIC_NAME_ACTIVE_CONNECTIONS, "Active connections", PoolStatistic::getActiveCount);
+        this.pendingConnectionGauge = registerGauge(
+                METRIC_NAME_PENDING_CONNECTIONS, "Pending threads", PoolStatistic::getWaiterCount);
+        this.maxConnectionGauge = registerGauge(
+                METRIC_NAME_MAX_CONNECTIONS, "Max connections", PoolStatistic::getMaxCount);
+        this.minConnectionGauge = registerGauge(
+                METRIC_NAME_MIN_CONNECTIONS, "Min idle connections", PoolStatistic::getMinCount);
+        this.creatingConnectionGauge = registerGauge(
+                METRIC_NAME_CREATING_CONNECTIONS, "Connections being created", PoolStatistic::getCreatingCount);
+        this.limitConnectionGauge = registerGauge(
+                METRIC_NAME_LIMIT_CONNECTIONS, "Connections borrowers may use at once", PoolStatistic::getLimitCount);
+    }
+
+    private Gauge registerGauge(String name, String description, ToDoubleFunction<PoolStatistic> value) {
+        return Gauge.builder(name, this, monitor -> value.applyAsDouble(monitor.statistic()))
+                .description(description)
                 .tags(METRIC_CATEGORY, poolName)
                 .register(meterRegistry);
     }
 
+    // the registry reads gauges one by one, reuse a fresh snapshot instead of reading the pool for each
+    private synchronized PoolStatistic statistic() {
+        long now = System.nanoTime();
+
+        if (statistic == null || now - statisticTakenAt > SNAPSHOT_MAX_AGE_NANOS) {
+            statistic = metrics.snapshot();
+            statisticTakenAt = now;
+        }
+
+        return statistic;
+    }
+
     @Override
-    public void recordConnectionAcquiredMs(long ms) {
-        connectionAcquireTimer.record(ms, TimeUnit.MILLISECONDS);
+    public void recordConnectionAcquiredNanos(long nanos) {
+        connectionAcquireTimer.record(nanos, TimeUnit.NANOSECONDS);
     }
 
     @Override
-    public void recordConnectionUsageMs(long ms) {
-        connectionUsageTimer.record(ms, TimeUnit.MILLISECONDS);
+    public void recordConnectionUsageNanos(long nanos) {
+        connectionUsageTimer.record(nanos, TimeUnit.NANOSECONDS);
     }
 
     @Override
@@ -146,9 +214,25 @@ public class MicrometerAdcpMonitor implements AdcpMonitor {
     }
 
     @Override
-    public void recordWait(long ms) {
+    public void recordWaitNanos(long nanos) {
         connectionWaitCreateCounter.increment();
-        connectionWaitCreateTimer.record(ms, TimeUnit.MILLISECONDS);
+        connectionWaitCreateTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void recordHousekeepingNanos(long nanos) {
+        housekeepingTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void recordValidationNanos(long nanos) {
+        validationTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void recordCircuitBreakerState(CircuitBreaker.State state) {
+        circuitBreakerState = state;
+        circuitBreakerTransitionCounters[state.ordinal()].increment();
     }
 
     @Override
@@ -157,8 +241,8 @@ public class MicrometerAdcpMonitor implements AdcpMonitor {
     }
 
     @Override
-    public void recordConnectionCreatedMs(long ms) {
-        connectionCreationTimer.record(ms, TimeUnit.MILLISECONDS);
+    public void recordConnectionCreatedNanos(long nanos) {
+        connectionCreationTimer.record(nanos, TimeUnit.NANOSECONDS);
     }
 
     @Override
@@ -166,6 +250,21 @@ public class MicrometerAdcpMonitor implements AdcpMonitor {
         connectionCreateErrorCounter.increment();
     }
 
+    @Override
+    public void recordStatementCacheHit() {
+        statementCacheHitCounter.increment();
+    }
+
+    @Override
+    public void recordStatementCacheMiss() {
+        statementCacheMissCounter.increment();
+    }
+
+    @Override
+    public void recordStatementCacheEviction() {
+        statementCacheEvictionCounter.increment();
+    }
+
     @Override
     public void reset() {
 
@@ -177,15 +276,26 @@ public class MicrometerAdcpMonitor implements AdcpMonitor {
         meterRegistry.remove(connectionWaitCreateTimer);
         meterRegistry.remove(connectionUsageTimer);
         meterRegistry.remove(connectionCreationTimer);
+        meterRegistry.remove(housekeepingTimer);
+        meterRegistry.remove(validationTimer);
         meterRegistry.remove(connectionTimeoutCounter);
         meterRegistry.remove(invalidConnectionCounter);
         meterRegistry.remove(connectionCreateErrorCounter);
         meterRegistry.remove(connectionWaitCreateCounter);
+        meterRegistry.remove(statementCacheHitCounter);
+        meterRegistry.remove(statementCacheMissCounter);
+        meterRegistry.remove(statementCacheEvictionCounter);
+        for (Counter counter : circuitBreakerTransitionCounters) {
+            meterRegistry.remove(counter);
+        }
+        meterRegistry.remove(circuitBreakerStateGauge);
         meterRegistry.remove(totalConnectionGauge);
         meterRegistry.remove(idleConnectionGauge);
         meterRegistry.remove(activeConnectionGauge);
         meterRegistry.remove(pendingConnectionGauge);
         meterRegistry.remove(maxConnectionGauge);
         meterRegistry.remove(minConnectionGauge);
+        meterRegistry.remove(creatingConnectionGauge);
+        meterRegistry.remove(limitConnectionGauge);
     }
 }
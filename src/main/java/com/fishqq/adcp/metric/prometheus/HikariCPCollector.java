@@ -1,15 +1,18 @@
 package com.fishqq.adcp.metric.prometheus;
 
 import com.fishqq.adcp.AdcpMetrics;
+import com.fishqq.adcp.PoolStatistic;
 import io.prometheus.client.Collector;
+import io.prometheus.client.CounterMetricFamily;
 import io.prometheus.client.GaugeMetricFamily;
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
 
 class HikariCPCollector extends Collector {
     private static final List<String> LABEL_NAMES = Collections.singletonList("pool");
@@ -18,19 +21,31 @@ class HikariCPCollector extends Collector {
 
     @Override
     public List<MetricFamilySamples> collect() {
+        // one snapshot per pool and scrape, so the gauges of a pool agree with each other
+        Map<String, PoolStatistic> statistics = new HashMap<>();
+        metricsMap.forEach((name, metrics) -> statistics.put(name, metrics.snapshot()));
+
         return Arrays.asList(
-                createGauge("adcp_active_connections", "Active connections",
-                        AdcpMetrics::getActiveConnectionCount),
-                createGauge("adcp_idle_connections", "Idle connections",
-                        AdcpMetrics::getIdleConnectionCount),
-                createGauge("adcp_pending_threads", "Pending threads",
-                        AdcpMetrics::getPendingThreadCount),
-                createGauge("adcp_connections", "The number of current connections",
-                        AdcpMetrics::getTotalConnectionCount),
-                createGauge("adcp_max_connections", "Max connections",
-                        AdcpMetrics::getMaxConnectionCount),
-                createGauge("adcp_min_connections", "Min connections",
-                        AdcpMetrics::getMinConnectionCount)
+                createGauge(statistics, "adcp_active_connections", "Active connections",
+                        PoolStatistic::getActiveCount),
+                createGauge(statistics, "adcp_idle_connections", "Idle connections",
+                        PoolStatistic::getIdleCount),
+                createGauge(statistics, "adcp_pending_threads", "Pending threads",
+                        PoolStatistic::getWaiterCount),
+                createGauge(statistics, "adcp_connections", "The number of current connections",
+                        PoolStatistic::getTotalCount),
+                createGauge(statistics, "adcp_max_connections", "Max connections",
+                        PoolStatistic::getMaxCount),
+                createGauge(statistics, "adcp_min_connections", "Min connections",
+                        PoolStatistic::getMinCount),
+                createGauge(statistics, "adcp_creating_connections", "Connections being created",
+                        PoolStatistic::getCreatingCount),
+                createGauge(statistics, "adcp_limit_connections", "Connections borrowers may use at once",
+                        PoolStatistic::getLimitCount),
+                createCounter(statistics, "adcp_connections_created", "Raw connections created",
+                        PoolStatistic::getCreatedTotal),
+                createCounter(statistics, "adcp_connections_closed", "Raw connections closed",
+                        PoolStatistic::getClosedTotal)
         );
     }
 
@@ -42,13 +57,17 @@ class HikariCPCollector extends Collector {
         metricsMap.remove(name);
     }
 
-    private GaugeMetricFamily createGauge(String metric, String help,
-                                          Function<AdcpMetrics, Integer> metricValueFunction) {
+    private static GaugeMetricFamily createGauge(Map<String, PoolStatistic> statistics, String metric, String help,
+                                                 ToDoubleFunction<PoolStatistic> value) {
         GaugeMetricFamily metricFamily = new GaugeMetricFamily(metric, help, LABEL_NAMES);
-        metricsMap.forEach((k, v) -> metricFamily.addMetric(
-                Collections.singletonList(k),
-                metricValueFunction.apply(v)
-        ));
+        statistics.forEach((k, v) -> metricFamily.addMetric(Collections.singletonList(k), value.applyAsDouble(v)));
+        return metricFamily;
+    }
+
+    private static CounterMetricFamily createCounter(Map<String, PoolStatistic> statistics, String metric,
+                                                     String help, ToDoubleFunction<PoolStatistic> value) {
+        CounterMetricFamily metricFamily = new CounterMetricFamily(metric, help, LABEL_NAMES);
+        statistics.forEach((k, v) -> metricFamily.addMetric(Collections.singletonList(k), value.applyAsDouble(v)));
         return metricFamily;
     }
 }
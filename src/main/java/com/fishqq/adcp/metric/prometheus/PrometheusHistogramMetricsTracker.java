@@ -17,8 +17,10 @@ package com.fishqq.adcp.metric.prometheus;
 
 import com.fishqq.adcp.AdcpMetrics;
 import com.fishqq.adcp.AdcpMonitor;
+import com.fishqq.adcp.CircuitBreaker;
 import io.prometheus.client.CollectorRegistry;
 import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
 import io.prometheus.client.Histogram;
 
 import java.util.Map;
@@ -31,6 +33,24 @@ public class PrometheusHistogramMetricsTracker implements AdcpMonitor {
             .help("Connection timeout total count")
             .create();
 
+    private static final Counter STATEMENT_CACHE_COUNTER = Counter.build()
+            .name("adcp_statement_cache_total")
+            .labelNames("pool", "result")
+            .help("Statement cache lookups and evictions")
+            .create();
+
+    private static final Gauge CIRCUIT_BREAKER_STATE_GAUGE = Gauge.build()
+            .name("adcp_circuit_breaker_state")
+            .labelNames("pool")
+            .help("Circuit breaker state, 0 closed, 1 open, 2 half open")
+            .create();
+
+    private static final Counter CIRCUIT_BREAKER_TRANSITION_COUNTER = Counter.build()
+            .name("adcp_circuit_breaker_transitions_total")
+            .labelNames("pool", "state")
+            .help("Circuit breaker transitions by new state")
+            .create();
+
     private static final Histogram ELAPSED_ACQUIRED_HISTOGRAM =
             registerHistogram("adcp_connection_acquired_nanos", "Connection acquired time (ns)", 1_000);
 
@@ -40,7 +60,19 @@ public class PrometheusHistogramMetricsTracker implements AdcpMonitor {
     private static final Histogram ELAPSED_CREATION_HISTOGRAM =
             registerHistogram("adcp_connection_creation_millis", "Connection creation (ms)", 1);
 
+    private static final Histogram ELAPSED_WAIT_HISTOGRAM =
+            registerHistogram("adcp_connection_wait_millis", "Connection wait in pool (ms)", 1);
+
+    private static final Histogram ELAPSED_HOUSEKEEPING_HISTOGRAM =
+            registerHistogram("adcp_housekeeping_millis", "Housekeeping run (ms)", 1);
+
+    private static final Histogram ELAPSED_VALIDATION_HISTOGRAM =
+            registerHistogram("adcp_connection_validation_millis", "Connection validation (ms)", 0.125);
+
     private final Counter.Child connectionTimeoutCounterChild;
+    private final Counter.Child statementCacheHitCounterChild;
+    private final Counter.Child statementCacheMissCounterChild;
+    private final Counter.Child statementCacheEvictionCounterChild;
 
     private static Histogram registerHistogram(String name, String help, double bucketStart) {
         return Histogram.build()
@@ -59,34 +91,49 @@ public class PrometheusHistogramMetricsTracker implements AdcpMonitor {
     private final Histogram.Child elapsedAcquiredHistogramChild;
     private final Histogram.Child elapsedBorrowedHistogramChild;
     private final Histogram.Child elapsedCreationHistogramChild;
+    private final Histogram.Child elapsedWaitHistogramChild;
+    private final Histogram.Child elapsedHousekeepingHistogramChild;
+    private final Histogram.Child elapsedValidationHistogramChild;
 
     PrometheusHistogramMetricsTracker(String poolName, CollectorRegistry collectorRegistry, HikariCPCollector hikariCPCollector) {
         registerMetrics(collectorRegistry);
         this.poolName = poolName;
         this.hikariCPCollector = hikariCPCollector;
         this.connectionTimeoutCounterChild = CONNECTION_TIMEOUT_COUNTER.labels(poolName);
+        this.statementCacheHitCounterChild = STATEMENT_CACHE_COUNTER.labels(poolName, "hit");
+        this.statementCacheMissCounterChild = STATEMENT_CACHE_COUNTER.labels(poolName, "miss");
+        this.statementCacheEvictionCounterChild = STATEMENT_CACHE_COUNTER.labels(poolName, "eviction");
         this.elapsedAcquiredHistogramChild = ELAPSED_ACQUIRED_HISTOGRAM.labels(poolName);
         this.elapsedBorrowedHistogramChild = ELAPSED_BORROWED_HISTOGRAM.labels(poolName);
         this.elapsedCreationHistogramChild = ELAPSED_CREATION_HISTOGRAM.labels(poolName);
+        this.elapsedWaitHistogramChild = ELAPSED_WAIT_HISTOGRAM.labels(poolName);
+        this.elapsedHousekeepingHistogramChild = ELAPSED_HOUSEKEEPING_HISTOGRAM.labels(poolName);
+        this.elapsedValidationHistogramChild = ELAPSED_VALIDATION_HISTOGRAM.labels(poolName);
     }
 
     private void registerMetrics(CollectorRegistry collectorRegistry) {
         if (registrationStatuses.putIfAbsent(collectorRegistry, true) == null) {
             CONNECTION_TIMEOUT_COUNTER.register(collectorRegistry);
+            STATEMENT_CACHE_COUNTER.register(collectorRegistry);
+            CIRCUIT_BREAKER_STATE_GAUGE.register(collectorRegistry);
+            CIRCUIT_BREAKER_TRANSITION_COUNTER.register(collectorRegistry);
             ELAPSED_ACQUIRED_HISTOGRAM.register(collectorRegistry);
             ELAPSED_BORROWED_HISTOGRAM.register(collectorRegistry);
             ELAPSED_CREATION_HISTOGRAM.register(collectorRegistry);
+            ELAPSED_WAIT_HISTOGRAM.register(collectorRegistry);
+            ELAPSED_HOUSEKEEPING_HISTOGRAM.register(collectorRegistry);
+            ELAPSED_VALIDATION_HISTOGRAM.register(collectorRegistry);
         }
     }
 
     @Override
-    public void recordConnectionAcquiredMs(long elapsedAcquiredNanos) {
+    public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
         elapsedAcquiredHistogramChild.observe(elapsedAcquiredNanos);
     }
 
     @Override
-    public void recordConnectionUsageMs(long elapsedBorrowedMillis) {
-        elapsedBorrowedHistogramChild.observe(elapsedBorrowedMillis);
+    public void recordConnectionUsageNanos(long elapsedBorrowedNanos) {
+        elapsedBorrowedHistogramChild.observe(elapsedBorrowedNanos / 1e6);
     }
 
     @Override
@@ -96,12 +143,12 @@ public class PrometheusHistogramMetricsTracker implements AdcpMonitor {
 
     @Override
     public void initMetrics(AdcpMetrics metrics) {
-
+        hikariCPCollector.add(poolName, metrics);
     }
 
     @Override
-    public void recordConnectionCreatedMs(long connectionCreatedMillis) {
-        elapsedCreationHistogramChild.observe(connectionCreatedMillis);
+    public void recordConnectionCreatedNanos(long connectionCreatedNanos) {
+        elapsedCreationHistogramChild.observe(connectionCreatedNanos / 1e6);
     }
 
     @Override
@@ -115,8 +162,39 @@ public class PrometheusHistogramMetricsTracker implements AdcpMonitor {
     }
 
     @Override
-    public void recordWait(long ms) {
+    public void recordWaitNanos(long nanos) {
+        elapsedWaitHistogramChild.observe(nanos / 1e6);
+    }
 
+    @Override
+    public void recordHousekeepingNanos(long nanos) {
+        elapsedHousekeepingHistogramChild.observe(nanos / 1e6);
+    }
+
+    @Override
+    public void recordValidationNanos(long nanos) {
+        elapsedValidationHistogramChild.observe(nanos / 1e6);
+    }
+
+    @Override
+    public void recordCircuitBreakerState(CircuitBreaker.State state) {
+        CIRCUIT_BREAKER_STATE_GAUGE.labels(poolName).set(state.ordinal());
+        CIRCUIT_BREAKER_TRANSITION_COUNTER.labels(poolName, state.name().toLowerCase()).inc();
+    }
+
+    @Override
+    public void recordStatementCacheHit() {
+        statementCacheHitCounterChild.inc();
+    }
+
+    @Override
+    public void recordStatementCacheMiss() {
+        statementCacheMissCounterChild.inc();
+    }
+
+    @Override
+    public void recordStatementCacheEviction() {
+        statementCacheEvictionCounterChild.inc();
     }
 
     @Override
@@ -128,8 +206,18 @@ public class PrometheusHistogramMetricsTracker implements AdcpMonitor {
     public void close() {
         hikariCPCollector.remove(poolName);
         CONNECTION_TIMEOUT_COUNTER.remove(poolName);
+        STATEMENT_CACHE_COUNTER.remove(poolName, "hit");
+        STATEMENT_CACHE_COUNTER.remove(poolName, "miss");
+        STATEMENT_CACHE_COUNTER.remove(poolName, "eviction");
+        CIRCUIT_BREAKER_STATE_GAUGE.remove(poolName);
+        for (CircuitBreaker.State state : CircuitBreaker.State.values()) {
+            CIRCUIT_BREAKER_TRANSITION_COUNTER.remove(poolName, state.name().toLowerCase());
+        }
         ELAPSED_ACQUIRED_HISTOGRAM.remove(poolName);
         ELAPSED_BORROWED_HISTOGRAM.remove(poolName);
         ELAPSED_CREATION_HISTOGRAM.remove(poolName);
+        ELAPSED_WAIT_HISTOGRAM.remove(poolName);
+        ELAPSED_HOUSEKEEPING_HISTOGRAM.remove(poolName);
+        ELAPSED_VALIDATION_HISTOGRAM.remove(poolName);
     }
 }
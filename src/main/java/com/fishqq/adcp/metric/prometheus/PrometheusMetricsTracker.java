@@ -2,8 +2,10 @@ package com.fishqq.adcp.metric.prometheus;
 
 import com.fishqq.adcp.AdcpMetrics;
 import com.fishqq.adcp.AdcpMonitor;
+import com.fishqq.adcp.CircuitBreaker;
 import io.prometheus.client.CollectorRegistry;
 import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
 import io.prometheus.client.Summary;
 
 import java.util.Map;
@@ -17,6 +19,24 @@ public class PrometheusMetricsTracker implements AdcpMonitor {
             .help("Connection timeout total count")
             .create();
 
+    private final static Counter STATEMENT_CACHE_COUNTER = Counter.build()
+            .name("adcp_statement_cache_total")
+            .labelNames("pool", "result")
+            .help("Statement cache lookups and evictions")
+            .create();
+
+    private final static Gauge CIRCUIT_BREAKER_STATE_GAUGE = Gauge.build()
+            .name("adcp_circuit_breaker_state")
+            .labelNames("pool")
+            .help("Circuit breaker state, 0 closed, 1 open, 2 half open")
+            .create();
+
+    private final static Counter CIRCUIT_BREAKER_TRANSITION_COUNTER = Counter.build()
+            .name("adcp_circuit_breaker_transitions_total")
+            .labelNames("pool", "state")
+            .help("Circuit breaker transitions by new state")
+            .create();
+
     private final static Summary ELAPSED_ACQUIRED_SUMMARY =
             createSummary("adcp_connection_acquired_nanos", "Connection acquired time (ns)");
 
@@ -26,54 +46,81 @@ public class PrometheusMetricsTracker implements AdcpMonitor {
     private final static Summary ELAPSED_CREATION_SUMMARY =
             createSummary("adcp_connection_creation_millis", "Connection creation (ms)");
 
+    private final static Summary ELAPSED_WAIT_SUMMARY =
+            createSummary("adcp_connection_wait_millis", "Connection wait in pool (ms)");
+
+    private final static Summary ELAPSED_HOUSEKEEPING_SUMMARY =
+            createSummary("adcp_housekeeping_millis", "Housekeeping run (ms)");
+
+    private final static Summary ELAPSED_VALIDATION_SUMMARY =
+            createSummary("adcp_connection_validation_millis", "Connection validation (ms)");
+
     private final static Map<CollectorRegistry, Boolean> registrationStatuses = new ConcurrentHashMap<>();
 
     private final String poolName;
     private final HikariCPCollector hikariCPCollector;
 
     private final Counter.Child connectionTimeoutCounterChild;
+    private final Counter.Child statementCacheHitCounterChild;
+    private final Counter.Child statementCacheMissCounterChild;
+    private final Counter.Child statementCacheEvictionCounterChild;
 
     private final Summary.Child elapsedAcquiredSummaryChild;
     private final Summary.Child elapsedUsageSummaryChild;
     private final Summary.Child elapsedCreationSummaryChild;
+    private final Summary.Child elapsedWaitSummaryChild;
+    private final Summary.Child elapsedHousekeepingSummaryChild;
+    private final Summary.Child elapsedValidationSummaryChild;
 
     PrometheusMetricsTracker(String poolName, CollectorRegistry collectorRegistry, HikariCPCollector hikariCPCollector) {
         registerMetrics(collectorRegistry);
         this.poolName = poolName;
         this.hikariCPCollector = hikariCPCollector;
         this.connectionTimeoutCounterChild = CONNECTION_TIMEOUT_COUNTER.labels(poolName);
+        this.statementCacheHitCounterChild = STATEMENT_CACHE_COUNTER.labels(poolName, "hit");
+        this.statementCacheMissCounterChild = STATEMENT_CACHE_COUNTER.labels(poolName, "miss");
+        this.statementCacheEvictionCounterChild = STATEMENT_CACHE_COUNTER.labels(poolName, "eviction");
         this.elapsedAcquiredSummaryChild = ELAPSED_ACQUIRED_SUMMARY.labels(poolName);
         this.elapsedUsageSummaryChild = ELAPSED_USAGE_SUMMARY.labels(poolName);
         this.elapsedCreationSummaryChild = ELAPSED_CREATION_SUMMARY.labels(poolName);
+        this.elapsedWaitSummaryChild = ELAPSED_WAIT_SUMMARY.labels(poolName);
+        this.elapsedHousekeepingSummaryChild = ELAPSED_HOUSEKEEPING_SUMMARY.labels(poolName);
+        this.elapsedValidationSummaryChild = ELAPSED_VALIDATION_SUMMARY.labels(poolName);
     }
 
     private void registerMetrics(CollectorRegistry collectorRegistry) {
         if (registrationStatuses.putIfAbsent(collectorRegistry, true) == null) {
             CONNECTION_TIMEOUT_COUNTER.register(collectorRegistry);
+            STATEMENT_CACHE_COUNTER.register(collectorRegistry);
+            CIRCUIT_BREAKER_STATE_GAUGE.register(collectorRegistry);
+            CIRCUIT_BREAKER_TRANSITION_COUNTER.register(collectorRegistry);
             ELAPSED_ACQUIRED_SUMMARY.register(collectorRegistry);
             ELAPSED_USAGE_SUMMARY.register(collectorRegistry);
             ELAPSED_CREATION_SUMMARY.register(collectorRegistry);
+            ELAPSED_WAIT_SUMMARY.register(collectorRegistry);
+            ELAPSED_HOUSEKEEPING_SUMMARY.register(collectorRegistry);
+            ELAPSED_VALIDATION_SUMMARY.register(collectorRegistry);
         }
     }
 
     @Override
-    public void recordConnectionAcquiredMs(long elapsedAcquiredNanos) {
+    public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
         elapsedAcquiredSummaryChild.observe(elapsedAcquiredNanos);
     }
 
     @Override
-    public void recordConnectionUsageMs(long elapsedBorrowedMillis) {
-        elapsedUsageSummaryChild.observe(elapsedBorrowedMillis);
+    public void recordConnectionUsageNanos(long elapsedBorrowedNanos) {
+        elapsedUsageSummaryChild.observe(elapsedBorrowedNanos / 1e6);
     }
 
     @Override
-    public void recordConnectionCreatedMs(long connectionCreatedMillis) {
-        elapsedCreationSummaryChild.observe(connectionCreatedMillis);
+    public void recordConnectionCreatedNanos(long connectionCreatedNanos) {
+        elapsedCreationSummaryChild.observe(connectionCreatedNanos / 1e6);
     }
 
     @Override
     public void initMetrics(AdcpMetrics metrics) {
-
+        hikariCPCollector.add(poolName, metrics);
     }
 
     @Override
@@ -92,8 +139,39 @@ public class PrometheusMetricsTracker implements AdcpMonitor {
     }
 
     @Override
-    public void recordWait(long ms) {
+    public void recordWaitNanos(long nanos) {
+        elapsedWaitSummaryChild.observe(nanos / 1e6);
+    }
 
+    @Override
+    public void recordHousekeepingNanos(long nanos) {
+        elapsedHousekeepingSummaryChild.observe(nanos / 1e6);
+    }
+
+    @Override
+    public void recordValidationNanos(long nanos) {
+        elapsedValidationSummaryChild.observe(nanos / 1e6);
+    }
+
+    @Override
+    public void recordCircuitBreakerState(CircuitBreaker.State state) {
+        CIRCUIT_BREAKER_STATE_GAUGE.labels(poolName).set(state.ordinal());
+        CIRCUIT_BREAKER_TRANSITION_COUNTER.labels(poolName, state.name().toLowerCase()).inc();
+    }
+
+    @Override
+    public void recordStatementCacheHit() {
+        statementCacheHitCounterChild.inc();
+    }
+
+    @Override
+    public void recordStatementCacheMiss() {
+        statementCacheMissCounterChild.inc();
+    }
+
+    @Override
+    public void recordStatementCacheEviction() {
+        statementCacheEvictionCounterChild.inc();
     }
 
     @Override
@@ -118,8 +196,18 @@ public class PrometheusMetricsTracker implements AdcpMonitor {
     public void close() {
         hikariCPCollector.remove(poolName);
         CONNECTION_TIMEOUT_COUNTER.remove(poolName);
+        STATEMENT_CACHE_COUNTER.remove(poolName, "hit");
+        STATEMENT_CACHE_COUNTER.remove(poolName, "miss");
+        STATEMENT_CACHE_COUNTER.remove(poolName, "eviction");
+        CIRCUIT_BREAKER_STATE_GAUGE.remove(poolName);
+        for (CircuitBreaker.State state : CircuitBreaker.State.values()) {
+            CIRCUIT_BREAKER_TRANSITION_COUNTER.remove(poolName, state.name().toLowerCase());
+        }
         ELAPSED_ACQUIRED_SUMMARY.remove(poolName);
         ELAPSED_USAGE_SUMMARY.remove(poolName);
         ELAPSED_CREATION_SUMMARY.remove(poolName);
+        ELAPSED_WAIT_SUMMARY.remove(poolName);
+        ELAPSED_HOUSEKEEPING_SUMMARY.remove(poolName);
+        ELAPSED_VALIDATION_SUMMARY.remove(poolName);
     }
 }
@@ -0,0 +1,10 @@
+package com.fishqq.adcp;
+
+final class VirtualThreads {
+    private VirtualThreads() {
+    }
+
+    static boolean isVirtual(Thread thread) {
+        return thread.isVirtual();
+    }
+}
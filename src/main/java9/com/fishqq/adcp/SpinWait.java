@@ -0,0 +1,10 @@
+package com.fishqq.adcp;
+
+final class SpinWait {
+    private SpinWait() {
+    }
+
+    static void onSpinWait() {
+        Thread.onSpinWait();
+    }
+}
@@ -0,0 +1,107 @@
+package com.fishqq.adcp;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Drives the controller with a modeled database instead of a real pool: the database runs
+ * `cores` queries in parallel at baseNanos each, more concurrent queries queue inside it, so the
+ * usage time grows with the concurrency above cores while the throughput stays flat.
+ */
+public class AdaptiveConcurrencyLimitTest {
+    private static final long BASE_NANOS = 2_000_000;
+    private static final int MAX_POOL_SIZE = 64;
+    private static final int MIN_IDLE = 2;
+
+    private static long usageNanos(int concurrency, int cores) {
+        return BASE_NANOS * Math.max(cores, concurrency) / cores;
+    }
+
+    // runs the intervals with every limit slot busy and borrowers waiting, returns the lowest and the
+    // highest limit outside probe intervals among the last `tail` ones as {min, max}
+    private static int[] saturate(AdaptiveConcurrencyLimit controller, int intervals, int cores, int tail) {
+        int min = Integer.MAX_VALUE;
+        int max = 0;
+
+        for (int i = 0; i < intervals; i++) {
+            int limit = controller.getLimit();
+            long usage = usageNanos(limit, cores);
+
+            // a second of throughput at this concurrency
+            long queries = 1_000_000_000L * limit / usage;
+            for (long q = 0; q < queries; q++) {
+                controller.recordUsageNanos(usage);
+            }
+            controller.recordWaitNanos(usage);
+
+            int next = controller.update(100, MIN_IDLE, MAX_POOL_SIZE);
+
+            if (i >= intervals - tail && next >= limit / 2) {
+                min = Math.min(min, next);
+                max = Math.max(max, next);
+            }
+        }
+
+        return new int[]{min, max};
+    }
+
+    @Test
+    public void convergesNearTheDatabaseParallelism() {
+        AdaptiveConcurrencyLimit controller = new AdaptiveConcurrencyLimit("simulation", MAX_POOL_SIZE);
+
+        int[] range = saturate(controller, 200, 8, 60);
+
+        // enough to keep all 8 cores busy, without queueing much more than the tolerance inside the database
+        Assert.assertTrue("limit range " + range[0] + ".." + range[1], range[0] >= 8);
+        Assert.assertTrue("limit range " + range[0] + ".." + range[1], range[1] <= 16);
+    }
+
+    @Test
+    public void followsADatabaseThatGotSlower() {
+        AdaptiveConcurrencyLimit controller = new AdaptiveConcurrencyLimit("simulation", MAX_POOL_SIZE);
+
+        saturate(controller, 200, 16, 0);
+        int[] range = saturate(controller, 200, 4, 60);
+
+        Assert.assertTrue("limit range " + range[0] + ".." + range[1], range[0] >= 4);
+        Assert.assertTrue("limit range " + range[0] + ".." + range[1], range[1] <= 9);
+    }
+
+    @Test
+    public void growsFromTheMinimumUnderLoad() {
+        AdaptiveConcurrencyLimit controller = new AdaptiveConcurrencyLimit("simulation", MIN_IDLE);
+
+        int[] range = saturate(controller, 200, 16, 60);
+
+        Assert.assertTrue("limit range " + range[0] + ".." + range[1], range[0] >= 16);
+        Assert.assertTrue("limit range " + range[0] + ".." + range[1], range[1] <= 28);
+    }
+
+    @Test
+    public void doesNotGrowWithoutWaitingBorrowers() {
+        AdaptiveConcurrencyLimit controller = new AdaptiveConcurrencyLimit("simulation", 10);
+
+        for (int i = 0; i < 100; i++) {
+            // 3 busy connections, nobody waits
+            for (int q = 0; q < 100; q++) {
+                controller.recordUsageNanos(usageNanos(3, 8));
+            }
+            controller.update(0, MIN_IDLE, MAX_POOL_SIZE);
+        }
+
+        Assert.assertTrue("limit " + controller.getLimit(), controller.getLimit() <= 10);
+    }
+
+    @Test
+    public void neverDropsBelowTheLimitWithoutProbing() {
+        AdaptiveConcurrencyLimit controller = new AdaptiveConcurrencyLimit("simulation", MAX_POOL_SIZE, 0);
+
+        saturate(controller, 100, 8, 0);
+
+        // no probe interval at a quarter of the limit, every interval stays in the converged range
+        for (int i = 0; i < 100; i++) {
+            saturate(controller, 1, 8, 0);
+            Assert.assertTrue("limit " + controller.getLimit(), controller.getLimit() >= 8);
+        }
+    }
+}
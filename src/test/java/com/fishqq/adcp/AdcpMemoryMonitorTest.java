@@ -0,0 +1,59 @@
+package com.fishqq.adcp;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+public class AdcpMemoryMonitorTest {
+    @Test
+    public void snapshotAndResetSeeEveryEvent() {
+        AdcpMemoryMonitor monitor = new AdcpMemoryMonitor();
+        monitor.recordConnectionAcquiredNanos(100);
+        monitor.recordConnectionAcquiredNanos(300);
+        monitor.recordConnectionTimeout();
+
+        AdcpMemoryMonitor.Snapshot snapshot = monitor.snapshot();
+        Assert.assertEquals(2, snapshot.getAcquire().getCount());
+        Assert.assertEquals(200, snapshot.getAcquire().getMean());
+        Assert.assertEquals(1, snapshot.getTimeoutCount());
+
+        monitor.reset();
+        Assert.assertEquals(2, monitor.getLastInterval().getAcquire().getCount());
+        Assert.assertEquals(1, monitor.getLastInterval().getTimeoutCount());
+        Assert.assertEquals(0, monitor.snapshot().getAcquire().getCount());
+        Assert.assertEquals(0, monitor.snapshot().getTimeoutCount());
+    }
+
+    @Test
+    public void resetDuringRecordingLosesNothing() throws Exception {
+        AdcpMemoryMonitor monitor = new AdcpMemoryMonitor();
+        int threads = 8;
+        int events = 100_000;
+        CountDownLatch done = new CountDownLatch(threads);
+
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                for (int i = 0; i < events; i++) {
+                    monitor.recordWaitNanos(i);
+                    monitor.recordConnectionTimeout();
+                }
+                done.countDown();
+            }).start();
+        }
+
+        long waits = 0;
+        long timeouts = 0;
+        while (done.getCount() > 0) {
+            monitor.reset();
+            waits += monitor.getLastInterval().getWait().getCount();
+            timeouts += monitor.getLastInterval().getTimeoutCount();
+        }
+        monitor.reset();
+        waits += monitor.getLastInterval().getWait().getCount();
+        timeouts += monitor.getLastInterval().getTimeoutCount();
+
+        Assert.assertEquals((long) threads * events, waits);
+        Assert.assertEquals((long) threads * events, timeouts);
+    }
+}
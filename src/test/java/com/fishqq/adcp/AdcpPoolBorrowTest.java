@@ -0,0 +1,99 @@
+package com.fishqq.adcp;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A blocking borrow waits until its deadline at most and gives up its place in the queue when it
+ * times out or is interrupted.
+ */
+public class AdcpPoolBorrowTest {
+    private final StubDatabase database = new StubDatabase();
+    private AdcpPool pool;
+
+    @After
+    public void tearDown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void borrowTimesOutWhileAllConnectionsAreBusy() throws Exception {
+        pool = new AdcpPool(StubDatabase.config(1, 0), database.dataSource, new AdcpMemoryMonitor());
+
+        try (Connection ignored = pool.borrow(1, TimeUnit.SECONDS)) {
+            long start = System.nanoTime();
+            try {
+                pool.borrow(100, TimeUnit.MILLISECONDS);
+                Assert.fail("borrowed a second connection from a pool of one");
+            } catch (SQLTransientConnectionException expected) {
+                Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+            }
+        }
+
+        Assert.assertEquals(1, pool.snapshot().getTimeoutTotal());
+        Assert.assertEquals(0, pool.getPool().waiterCount());
+    }
+
+    @Test
+    public void interruptedBorrowerLeavesTheQueue() throws Exception {
+        pool = new AdcpPool(StubDatabase.config(1, 0), database.dataSource, new AdcpMemoryMonitor());
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        AtomicReference<Boolean> stillInterrupted = new AtomicReference<>();
+
+        try (Connection ignored = pool.borrow(1, TimeUnit.SECONDS)) {
+            Thread borrower = new Thread(() -> {
+                try {
+                    pool.borrow(5, TimeUnit.SECONDS).close();
+                } catch (Throwable e) {
+                    error.set(e);
+                }
+                stillInterrupted.set(Thread.currentThread().isInterrupted());
+            });
+            borrower.start();
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (pool.getPool().waiterCount() == 0) {
+                Assert.assertTrue(System.nanoTime() < deadline);
+                Thread.sleep(1);
+            }
+
+            borrower.interrupt();
+            borrower.join(1000);
+        }
+
+        Assert.assertTrue(error.get() instanceof SQLException);
+        Assert.assertTrue(error.get().getCause() instanceof InterruptedException);
+        Assert.assertTrue(stillInterrupted.get());
+        Assert.assertEquals(0, pool.getPool().waiterCount());
+        Assert.assertEquals(1, pool.snapshot().getIdleCount());
+    }
+
+
+    @Test
+    public void borrowWithoutTimeoutWaitsTheConfiguredMilliseconds() throws Exception {
+        AdcpPoolConfig config = StubDatabase.config(1, 0);
+        config.setBorrowTimeoutMs(100);
+        pool = new AdcpPool(config, database.dataSource, new AdcpMemoryMonitor());
+
+        try (Connection ignored = pool.borrow()) {
+            long start = System.nanoTime();
+            try {
+                pool.borrow();
+                Assert.fail("borrowed a second connection from a pool of one");
+            } catch (SQLTransientConnectionException expected) {
+                long waited = System.nanoTime() - start;
+                Assert.assertTrue(waited >= TimeUnit.MILLISECONDS.toNanos(100));
+                Assert.assertTrue(waited < TimeUnit.SECONDS.toNanos(1));
+            }
+        }
+    }
+}
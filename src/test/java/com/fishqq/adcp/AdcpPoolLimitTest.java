@@ -0,0 +1,71 @@
+package com.fishqq.adcp;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A lowered concurrency limit followed by recycling: the slots below the limit must be refilled
+ * even while idle connections above it are still open.
+ */
+public class AdcpPoolLimitTest {
+    private final StubDatabase database = new StubDatabase();
+    private AdcpPool pool;
+
+    @After
+    public void tearDown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    static void awaitIdle(AdcpPool pool, int idle) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (pool.snapshot().getIdleCount() < idle) {
+            Assert.assertTrue("pool never reached " + idle + " idle, " + pool.snapshot(), System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void refillsBelowLoweredLimitWhenItsConnectionsAreClosed() throws Exception {
+        AdcpPoolConfig config = StubDatabase.config(8, 8);
+        config.setAliveCheckPeriodMs(1);
+        pool = new AdcpPool(config, database.dataSource, new AdcpMemoryMonitor());
+        awaitIdle(pool, 8);
+
+        pool.getPool().setLimit(2);
+        Thread.sleep(10);
+        // every borrow finds a dead connection below the limit and closes it
+        database.invalidateAll();
+
+        try (Connection connection = pool.borrow(2, TimeUnit.SECONDS)) {
+            Assert.assertFalse(database.invalid.contains(((ProxyConnection) connection).rawConnection()));
+        }
+    }
+
+    @Test
+    public void recyclingClosesConnectionsAboveTheLimitFirst() throws Exception {
+        pool = new AdcpPool(StubDatabase.config(8, 0), database.dataSource, new AdcpMemoryMonitor());
+        pool.resize(8, 8);
+        awaitIdle(pool, 8);
+        pool.resize(8, 0);
+
+        pool.getPool().setLimit(2);
+
+        for (int i = 0; i < 6; i++) {
+            Assert.assertTrue(pool.closeIdleConnection(0));
+        }
+
+        int[] usable = pool.getPool().usableStateCounts();
+        Assert.assertEquals(2, usable[Pool.IDLE]);
+        Assert.assertEquals(2, pool.snapshot().getIdleCount());
+
+        try (Connection ignored = pool.borrow(1, TimeUnit.SECONDS)) {
+            Assert.assertEquals(8, database.opened.get());
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.fishqq.adcp;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class AdcpPoolResizeTest {
+    private final StubDatabase database = new StubDatabase();
+    private AdcpPool pool;
+
+    @After
+    public void tearDown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void shrinkingClosesBusyConnectionsAboveTheNewSizeWhenGivenBack() throws Exception {
+        pool = new AdcpPool(StubDatabase.config(4, 0), database.dataSource, new AdcpMemoryMonitor());
+        Connection[] connections = new Connection[4];
+        for (int i = 0; i < connections.length; i++) {
+            connections[i] = pool.borrow(1, TimeUnit.SECONDS);
+        }
+
+        pool.resize(2, 0);
+        Assert.assertEquals(0, database.closed.get());
+
+        for (Connection connection : connections) {
+            connection.close();
+        }
+
+        Assert.assertEquals(2, database.closed.get());
+        Assert.assertEquals(2, pool.snapshot().getIdleCount());
+
+        pool.resize(4, 4);
+        AdcpPoolLimitTest.awaitIdle(pool, 4);
+        Assert.assertEquals(6, database.opened.get());
+    }
+
+
+    @Test
+    public void snapshotCountsRetiredConnectionsUntilTheyAreGivenBack() throws Exception {
+        pool = new AdcpPool(StubDatabase.config(4, 0), database.dataSource, new AdcpMemoryMonitor());
+        Connection[] connections = new Connection[4];
+        for (int i = 0; i < connections.length; i++) {
+            connections[i] = pool.borrow(1, TimeUnit.SECONDS);
+        }
+
+        pool.resize(2, 0);
+        PoolStatistic shrinking = pool.snapshot();
+        Assert.assertEquals(2, shrinking.getMaxCount());
+        Assert.assertEquals(4, shrinking.getActiveCount());
+        Assert.assertEquals(4, shrinking.getTotalCount());
+        Assert.assertEquals(0, shrinking.getEmptyCount());
+
+        connections[3].close();
+        PoolStatistic oneGivenBack = pool.snapshot();
+        Assert.assertEquals(3, oneGivenBack.getActiveCount());
+        Assert.assertEquals(0, oneGivenBack.getIdleCount());
+        Assert.assertEquals(1, oneGivenBack.getClosedTotal());
+
+        for (int i = 0; i < 3; i++) {
+            connections[i].close();
+        }
+
+        PoolStatistic shrunk = pool.snapshot();
+        Assert.assertEquals(0, shrunk.getActiveCount());
+        Assert.assertEquals(2, shrunk.getIdleCount());
+        Assert.assertEquals(2, shrunk.getIdleCount() + shrunk.getActiveCount()
+                + shrunk.getEmptyCount() + shrunk.getReservedCount());
+        Assert.assertEquals(2, shrunk.getClosedTotal());
+    }
+
+    @Test
+    public void retiredConnectionGivenBackAfterShutdownIsClosedOnce() throws Exception {
+        pool = new AdcpPool(StubDatabase.config(4, 0), database.dataSource, new AdcpMemoryMonitor());
+        Connection[] connections = new Connection[4];
+        for (int i = 0; i < connections.length; i++) {
+            connections[i] = pool.borrow(1, TimeUnit.SECONDS);
+        }
+
+        pool.resize(2, 0);
+        pool.shutdown();
+        Assert.assertEquals(4, pool.snapshot().getClosedTotal());
+
+        for (Connection connection : connections) {
+            connection.close();
+        }
+
+        Assert.assertEquals(4, database.closed.get());
+        Assert.assertEquals(4, pool.snapshot().getClosedTotal());
+    }
+
+    @Test
+    public void growingServesWaitingBorrowers() throws Exception {
+        pool = new AdcpPool(StubDatabase.config(1, 0), database.dataSource, new AdcpMemoryMonitor());
+
+        try (Connection ignored = pool.borrow(1, TimeUnit.SECONDS)) {
+            CompletableFuture<Connection> waiting = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return pool.borrow(5, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (pool.getPool().waiterCount() == 0) {
+                Assert.assertTrue(System.nanoTime() < deadline);
+                Thread.sleep(1);
+            }
+
+            pool.resize(2, 0);
+            waiting.get(1, TimeUnit.SECONDS).close();
+        }
+
+        Assert.assertEquals(2, database.opened.get());
+        Assert.assertEquals(2, pool.snapshot().getIdleCount());
+    }
+}
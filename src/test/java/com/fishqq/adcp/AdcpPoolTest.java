@@ -0,0 +1,222 @@
+package com.fishqq.adcp;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class AdcpPoolTest {
+    private final StubDatabase database = new StubDatabase();
+    private AdcpPool pool;
+
+    @After
+    public void tearDown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void retriesFailedCreationForParkedBorrowers() throws Exception {
+        pool = new AdcpPool(StubDatabase.config(4, 0), database.dataSource, new AdcpMemoryMonitor());
+        database.failures.set(1);
+
+        long start = System.nanoTime();
+        try (Connection ignored = pool.borrow(3, TimeUnit.SECONDS)) {
+            Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        }
+
+        Assert.assertEquals(1, pool.snapshot().getCreateErrorTotal());
+    }
+
+    @Test
+    public void breakerRecoversAfterProbesWithoutBudget() throws Exception {
+        AdcpPoolConfig config = StubDatabase.config(2, 0);
+        config.setCircuitBreakerFailureThreshold(1);
+        config.setCircuitBreakerProbeIntervalMs(20);
+        ConnectionBudget budget = new ConnectionBudget(1);
+        pool = new AdcpPool(config, database.dataSource, new AdcpMemoryMonitor(), budget);
+
+        database.failures.set(Integer.MAX_VALUE);
+        try {
+            pool.borrow(200, TimeUnit.MILLISECONDS).close();
+        } catch (SQLException expected) {
+            // the failure opened the breaker
+        }
+        Assert.assertFalse(pool.getCircuitBreaker().isClosed());
+
+        // another pool takes the only permit, probes find no room meanwhile
+        while (!budget.acquire()) {
+            Thread.yield();
+        }
+        database.failures.set(0);
+        Thread.sleep(100);
+        Assert.assertFalse(pool.getCircuitBreaker().isClosed());
+
+        // a probe that found no room must not leave the breaker half open for good
+        budget.returnUnused();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (!pool.getCircuitBreaker().isClosed()) {
+            Assert.assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+        pool.borrow(1, TimeUnit.SECONDS).close();
+    }
+
+    @Test
+    public void keepaliveValidatesOffTheHousekeeperThread() throws Exception {
+        AdcpPoolConfig config = StubDatabase.config(4, 4);
+        config.setKeepaliveIntervalMs(100);
+        database.validationMillis = 500;
+        pool = new AdcpPool(config, database.dataSource, new AdcpMemoryMonitor());
+        AdcpPoolLimitTest.awaitIdle(pool, 4);
+
+        // keepalive is validating by now
+        Thread.sleep(200);
+
+        CountDownLatch ran = new CountDownLatch(1);
+        AdcpHousekeeper.HOUSEKEEPING.scheduleOnce(ran::countDown, 0);
+        Assert.assertTrue("housekeeper thread is blocked", ran.await(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void secondShutdownLeavesOtherPoolsScheduled() throws Exception {
+        pool = new AdcpPool(StubDatabase.config(1, 0), database.dataSource, new AdcpMemoryMonitor());
+        AdcpPool other = new AdcpPool(StubDatabase.config(1, 0), database.dataSource, new AdcpMemoryMonitor());
+
+        other.shutdown();
+        other.shutdown();
+
+        CountDownLatch ran = new CountDownLatch(1);
+        AdcpHousekeeper.HOUSEKEEPING.scheduleOnce(ran::countDown, 0);
+        Assert.assertTrue("housekeeper stopped while a pool is open", ran.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void asyncBorrowTimesOut() throws Exception {
+        pool = new AdcpPool(StubDatabase.config(1, 1), database.dataSource, new AdcpMemoryMonitor());
+
+        try (Connection ignored = pool.borrow(1, TimeUnit.SECONDS)) {
+            CompletableFuture<Connection> future = pool.borrowAsync(50, TimeUnit.MILLISECONDS);
+            try {
+                future.get(1, TimeUnit.SECONDS);
+                Assert.fail("borrowed a second connection from a pool of one");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof SQLTransientConnectionException);
+            }
+        }
+    }
+
+    @Test
+    public void asyncBorrowTimesOutWhileTheHousekeeperIsBusy() throws Exception {
+        pool = new AdcpPool(StubDatabase.config(1, 1), database.dataSource, new AdcpMemoryMonitor());
+        CountDownLatch busy = new CountDownLatch(1);
+        AdcpHousekeeper.HOUSEKEEPING.scheduleOnce(() -> {
+            try {
+                busy.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, 0);
+
+        try (Connection ignored = pool.borrow(1, TimeUnit.SECONDS)) {
+            CompletableFuture<Connection> future = pool.borrowAsync(50, TimeUnit.MILLISECONDS);
+            try {
+                future.get(1, TimeUnit.SECONDS);
+                Assert.fail("borrowed a second connection from a pool of one");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof SQLTransientConnectionException);
+            }
+        } finally {
+            busy.countDown();
+        }
+    }
+
+    @Test
+    public void connectionThatFailsToResetIsClosed() throws Exception {
+        pool = new AdcpPool(StubDatabase.config(1, 1), database.dataSource, new AdcpMemoryMonitor());
+
+        Connection connection = pool.borrow(1, TimeUnit.SECONDS);
+        Connection raw = ((ProxyConnection) connection).rawConnection();
+        connection.setAutoCommit(false);
+        database.broken.add(raw);
+
+        try {
+            connection.close();
+            Assert.fail("reset error swallowed");
+        } catch (SQLException expected) {
+            // the reset failed
+        }
+
+        Assert.assertFalse(database.live.contains(raw));
+        try (Connection next = pool.borrow(1, TimeUnit.SECONDS)) {
+            Assert.assertNotSame(raw, ((ProxyConnection) next).rawConnection());
+        }
+        Assert.assertEquals(1, pool.snapshot().getInvalidTotal());
+    }
+
+    @Test
+    public void contendedBorrowsNeverShareOrExceedThePool() throws Exception {
+        pool = new AdcpPool(StubDatabase.config(4, 0), database.dataSource, new AdcpMemoryMonitor());
+        Set<Connection> held = ConcurrentHashMap.newKeySet();
+        AtomicInteger maxHeld = new AtomicInteger();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread[] threads = new Thread[16];
+
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    for (int n = 0; n < 200; n++) {
+                        try (Connection connection = pool.borrow(5, TimeUnit.SECONDS)) {
+                            Connection raw = ((ProxyConnection) connection).rawConnection();
+                            Assert.assertTrue("handed out twice", held.add(raw));
+                            maxHeld.accumulateAndGet(held.size(), Math::max);
+                            held.remove(raw);
+                        }
+                    }
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertNull(error.get());
+        Assert.assertTrue(maxHeld.get() <= 4);
+        Assert.assertTrue(database.opened.get() <= 4);
+        Assert.assertEquals(0, pool.snapshot().getActiveCount());
+        Assert.assertEquals(database.opened.get(), pool.snapshot().getIdleCount());
+    }
+
+    @Test
+    public void secondCloseBeforeTheNextBorrowIsIgnored() throws Exception {
+        pool = new AdcpPool(StubDatabase.config(2, 0), database.dataSource, new AdcpMemoryMonitor());
+
+        Connection first = pool.borrow(1, TimeUnit.SECONDS);
+        first.close();
+        first.close();
+
+        try (Connection second = pool.borrow(1, TimeUnit.SECONDS);
+             Connection third = pool.borrow(1, TimeUnit.SECONDS)) {
+            Assert.assertSame(first, second);
+            Assert.assertFalse(second.isClosed());
+            Assert.assertNotSame(((ProxyConnection) second).rawConnection(), ((ProxyConnection) third).rawConnection());
+            Assert.assertEquals(2, pool.snapshot().getActiveCount());
+        }
+        Assert.assertEquals(2, pool.snapshot().getIdleCount());
+    }
+}
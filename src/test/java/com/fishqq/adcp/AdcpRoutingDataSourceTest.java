@@ -0,0 +1,95 @@
+package com.fishqq.adcp;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
+
+public class AdcpRoutingDataSourceTest {
+    private final StubDatabase primary = new StubDatabase();
+    private final StubDatabase replica = new StubDatabase();
+    private AdcpRoutingDataSource routing;
+
+    @After
+    public void tearDown() {
+        if (routing != null) {
+            routing.close();
+        }
+    }
+
+    private static AdcpDataSource dataSource(String name, DataSource dataSource) {
+        AdcpPoolConfig config = StubDatabase.config(2, 0);
+        config.setPoolName(name);
+        return new AdcpDataSource(config, dataSource);
+    }
+
+    @Test
+    public void readOnlyGoesToReplica() throws Exception {
+        routing = new AdcpRoutingDataSource(dataSource("primary", primary.dataSource),
+                Collections.singletonList(dataSource("replica", replica.dataSource)));
+
+        try (Connection connection = routing.getConnection()) {
+            connection.setReadOnly(true);
+            connection.getAutoCommit();
+            Assert.assertEquals(1, routing.getReplicaOutstandingBorrows(0));
+            Assert.assertEquals(0, routing.getPrimaryOutstandingBorrows());
+        }
+
+        try (Connection connection = routing.getConnection()) {
+            connection.getAutoCommit();
+            Assert.assertEquals(1, routing.getPrimaryOutstandingBorrows());
+        }
+
+        Assert.assertEquals(0, routing.getReplicaOutstandingBorrows(0));
+        Assert.assertEquals(0, routing.getPrimaryOutstandingBorrows());
+    }
+
+    @Test
+    public void failedSetupGivesTheConnectionBack() throws Exception {
+        // replica connections refuse to become read only
+        DataSource refusing = (DataSource) Proxy.newProxyInstance(
+                AdcpRoutingDataSourceTest.class.getClassLoader(),
+                new Class<?>[]{DataSource.class},
+                (proxy, method, args) -> {
+                    if (!method.getName().equals("getConnection")) {
+                        return method.invoke(replica.dataSource, args);
+                    }
+                    Connection connection = replica.dataSource.getConnection();
+                    return Proxy.newProxyInstance(
+                            AdcpRoutingDataSourceTest.class.getClassLoader(),
+                            new Class<?>[]{Connection.class},
+                            (p, m, a) -> {
+                                if (m.getName().equals("setReadOnly")) {
+                                    throw new SQLException("read only not supported");
+                                }
+                                try {
+                                    return m.invoke(connection, a);
+                                } catch (InvocationTargetException e) {
+                                    throw e.getCause();
+                                }
+                            });
+                });
+
+        AdcpDataSource replicaPool = dataSource("replica", refusing);
+        routing = new AdcpRoutingDataSource(dataSource("primary", primary.dataSource),
+                Collections.singletonList(replicaPool));
+
+        for (int i = 0; i < 3; i++) {
+            try {
+                routing.getConnection(true).close();
+                Assert.fail("setup error swallowed");
+            } catch (SQLException expected) {
+                // setReadOnly failed
+            }
+        }
+
+        Assert.assertEquals(0, routing.getReplicaOutstandingBorrows(0));
+        Assert.assertEquals(0, replicaPool.getMetrics().snapshot().getActiveCount());
+    }
+}
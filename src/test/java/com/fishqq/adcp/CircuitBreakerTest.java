@@ -0,0 +1,132 @@
+package com.fishqq.adcp;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class CircuitBreakerTest {
+    private static final long PROBE_INTERVAL = 1_000_000;
+    private static final SQLException REFUSED = new SQLException("connection refused");
+
+    private final AtomicLong now = new AtomicLong(0);
+    private final AdcpMemoryMonitor monitor = new AdcpMemoryMonitor();
+
+    private CircuitBreaker breaker(int failureThreshold) {
+        return new CircuitBreaker("test", failureThreshold, PROBE_INTERVAL, now::get, monitor);
+    }
+
+    private CircuitBreaker opened() {
+        CircuitBreaker breaker = breaker(1);
+        breaker.onFailure(REFUSED);
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        return breaker;
+    }
+
+    @Test
+    public void opensAfterThresholdFailuresInARow() {
+        CircuitBreaker breaker = breaker(3);
+
+        breaker.onFailure(REFUSED);
+        breaker.onFailure(REFUSED);
+        breaker.onSuccess();
+        breaker.onFailure(REFUSED);
+        breaker.onFailure(REFUSED);
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        breaker.onFailure(REFUSED);
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Assert.assertEquals(1, monitor.snapshot().getCircuitBreakerOpenedCount());
+    }
+
+    @Test
+    public void zeroThresholdNeverOpens() {
+        CircuitBreaker breaker = breaker(0);
+
+        for (int i = 0; i < 100; i++) {
+            breaker.onFailure(REFUSED);
+        }
+        Assert.assertTrue(breaker.isClosed());
+        Assert.assertFalse(breaker.tryProbe());
+    }
+
+    @Test
+    public void probeWaitsForTheIntervalAndClosesOnSuccess() {
+        CircuitBreaker breaker = opened();
+
+        now.addAndGet(PROBE_INTERVAL - 1);
+        Assert.assertFalse(breaker.tryProbe());
+
+        now.incrementAndGet();
+        Assert.assertTrue(breaker.tryProbe());
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        Assert.assertFalse("second probe while half open", breaker.tryProbe());
+
+        breaker.onSuccess();
+        Assert.assertTrue(breaker.isClosed());
+        Assert.assertEquals(0, breaker.getConsecutiveFailures());
+    }
+
+    @Test
+    public void failedProbeReopensForAnotherInterval() {
+        CircuitBreaker breaker = opened();
+        now.addAndGet(PROBE_INTERVAL);
+        Assert.assertTrue(breaker.tryProbe());
+
+        breaker.onFailure(REFUSED);
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Assert.assertFalse(breaker.tryProbe());
+
+        now.addAndGet(PROBE_INTERVAL);
+        Assert.assertTrue(breaker.tryProbe());
+        Assert.assertEquals(2, monitor.snapshot().getCircuitBreakerOpenedCount());
+    }
+
+    @Test
+    public void abortedProbeReopensWithoutCountingAFailure() {
+        CircuitBreaker breaker = opened();
+        now.addAndGet(PROBE_INTERVAL);
+        Assert.assertTrue(breaker.tryProbe());
+
+        breaker.onProbeAborted();
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Assert.assertEquals(1, breaker.getConsecutiveFailures());
+
+        now.addAndGet(PROBE_INTERVAL);
+        Assert.assertTrue(breaker.tryProbe());
+    }
+
+    @Test
+    public void onlyOneOfManyThreadsGetsTheProbe() throws Exception {
+        for (int round = 0; round < 100; round++) {
+            CircuitBreaker breaker = opened();
+            now.addAndGet(PROBE_INTERVAL);
+
+            int threads = 8;
+            CountDownLatch start = new CountDownLatch(1);
+            CountDownLatch done = new CountDownLatch(threads);
+            AtomicInteger probes = new AtomicInteger();
+
+            for (int i = 0; i < threads; i++) {
+                new Thread(() -> {
+                    try {
+                        start.await();
+                        if (breaker.tryProbe()) {
+                            probes.incrementAndGet();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    done.countDown();
+                }).start();
+            }
+
+            start.countDown();
+            done.await();
+            Assert.assertEquals(1, probes.get());
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.fishqq.adcp;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class CoarseClockTest {
+    private final AtomicLong now = new AtomicLong(0);
+
+    private static void awaitCoarseTime(CoarseClock clock, long expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (clock.coarseNanoTime() != expected) {
+            Assert.assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void coarseTimeFollowsTheClockOnTicks() throws Exception {
+        try (CoarseClock clock = new CoarseClock(now::get, 1)) {
+            Assert.assertEquals(0, clock.coarseNanoTime());
+
+            now.set(5_000);
+            Assert.assertEquals(5_000, clock.nanoTime());
+            awaitCoarseTime(clock, 5_000);
+
+            now.set(7_000);
+            awaitCoarseTime(clock, 7_000);
+        }
+    }
+
+    @Test
+    public void coarseTimeLagsWhileNoTickRuns() {
+        // the first tick is an hour away, only the precise time moves
+        try (CoarseClock clock = new CoarseClock(now::get, TimeUnit.HOURS.toMillis(1))) {
+            now.set(5_000);
+            Assert.assertEquals(5_000, clock.nanoTime());
+            Assert.assertEquals(0, clock.coarseNanoTime());
+        }
+    }
+
+    @Test
+    public void closedClockStopsTicking() throws Exception {
+        CoarseClock clock = new CoarseClock(now::get, 1);
+        now.set(5_000);
+        awaitCoarseTime(clock, 5_000);
+
+        clock.close();
+        // a tick already running when close returned may still finish
+        Thread.sleep(50);
+        now.set(7_000);
+        Thread.sleep(50);
+        Assert.assertEquals(5_000, clock.coarseNanoTime());
+    }
+}
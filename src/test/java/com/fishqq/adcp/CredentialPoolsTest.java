@@ -0,0 +1,83 @@
+package com.fishqq.adcp;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class CredentialPoolsTest {
+    private final StubDatabase database = new StubDatabase();
+    private AdcpDataSource dataSource;
+
+    @After
+    public void tearDown() {
+        if (dataSource != null) {
+            dataSource.close();
+        }
+    }
+
+    @Test
+    public void poolsPerCredentialShareTheCap() throws Exception {
+        AdcpPoolConfig config = StubDatabase.config(4, 1);
+        config.setMaxCredentialPools(2);
+        config.setMaxTotalConnections(3);
+        dataSource = new AdcpDataSource(config, database.dataSource);
+
+        try (Connection a = dataSource.getConnection("a", "pw");
+             Connection b = dataSource.getConnection("b", "pw")) {
+            Assert.assertNotSame(a, b);
+            Assert.assertEquals(2, dataSource.getCredentialPoolMetrics().size());
+            // the main pool's idle connection made room for the second credential
+            Assert.assertTrue(database.live.size() <= 3);
+        }
+    }
+
+    @Test
+    public void evictionRacingBorrowsNeverFailsThem() throws Exception {
+        AdcpPoolConfig config = StubDatabase.config(2, 0);
+        // a third credential evicts the least recently used unused pool
+        config.setMaxCredentialPools(2);
+        dataSource = new AdcpDataSource(config, database.dataSource);
+
+        ExecutorService executor = Executors.newFixedThreadPool(6);
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (int i = 0; i < 6; i++) {
+            String username = "user" + (i % 3);
+            futures.add(executor.submit(() -> {
+                for (int n = 0; n < 500; n++) {
+                    try (Connection ignored = dataSource.getConnection(username, "pw")) {
+                        // borrowed
+                    } catch (SQLTransientConnectionException e) {
+                        // both pools busy, allowed
+                    }
+                }
+                return null;
+            }));
+        }
+
+        try {
+            for (Future<?> future : futures) {
+                // an unchecked exception or a borrow from an evicted pool fails the future
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(expected = SQLException.class)
+    public void borrowFromClosedPoolIsSqlException() throws Exception {
+        AdcpPool pool = new AdcpPool(StubDatabase.config(1, 0), database.dataSource, new AdcpMemoryMonitor());
+        pool.shutdown();
+        pool.borrow();
+    }
+}
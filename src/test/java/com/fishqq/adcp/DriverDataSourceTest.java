@@ -0,0 +1,53 @@
+package com.fishqq.adcp;
+
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Driver;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class DriverDataSourceTest {
+    private final AtomicReference<Properties> connected = new AtomicReference<>();
+
+    private final Driver driver = (Driver) Proxy.newProxyInstance(
+            DriverDataSourceTest.class.getClassLoader(),
+            new Class<?>[]{Driver.class},
+            (proxy, method, args) -> {
+                if (method.getName().equals("connect")) {
+                    connected.set((Properties) args[1]);
+                }
+                return null;
+            });
+
+    @Test
+    public void credentialsKeepTheDefaultDriverProperties() throws Exception {
+        Properties defaults = new Properties();
+        defaults.setProperty("ssl", "true");
+        Properties properties = new Properties(defaults);
+        properties.setProperty("user", "app");
+        properties.setProperty("password", "secret");
+
+        new DriverDataSource(driver, "jdbc:stub", properties).getConnection("reader", "pw");
+
+        assertEquals("true", connected.get().getProperty("ssl"));
+        assertEquals("reader", connected.get().getProperty("user"));
+        assertEquals("pw", connected.get().getProperty("password"));
+        assertEquals("app", properties.getProperty("user"));
+    }
+
+    @Test
+    public void nullCredentialsAreLeftOut() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("user", "app");
+        properties.setProperty("password", "secret");
+
+        new DriverDataSource(driver, "jdbc:stub", properties).getConnection("reader", null);
+
+        assertEquals("reader", connected.get().getProperty("user"));
+        assertFalse(connected.get().containsKey("password"));
+    }
+}
@@ -0,0 +1,74 @@
+package com.fishqq.adcp;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class LimitedExecutorTest {
+    // runs nothing until the test says so
+    private final Queue<Runnable> workers = new ArrayDeque<>();
+    private final Executor manual = workers::add;
+
+    @Test
+    public void startsAtMostTheLimitOfWorkers() {
+        LimitedExecutor executor = new LimitedExecutor(manual, 2);
+        AtomicInteger ran = new AtomicInteger();
+
+        for (int i = 0; i < 5; i++) {
+            executor.execute(ran::incrementAndGet);
+        }
+        Assert.assertEquals(2, workers.size());
+
+        // each worker drains the queue before it stops
+        workers.poll().run();
+        Assert.assertEquals(5, ran.get());
+        workers.poll().run();
+        Assert.assertEquals(5, ran.get());
+        Assert.assertTrue(workers.isEmpty());
+    }
+
+    @Test
+    public void taskQueuedAfterAllWorkersStoppedStartsANewOne() {
+        LimitedExecutor executor = new LimitedExecutor(manual, 1);
+        AtomicInteger ran = new AtomicInteger();
+
+        executor.execute(ran::incrementAndGet);
+        workers.poll().run();
+
+        executor.execute(ran::incrementAndGet);
+        Assert.assertEquals(1, workers.size());
+        workers.poll().run();
+        Assert.assertEquals(2, ran.get());
+    }
+
+    @Test
+    public void rejectedWorkerRejectsTheTaskAndFreesItsSlot() {
+        boolean[] reject = {true};
+        LimitedExecutor executor = new LimitedExecutor(task -> {
+            if (reject[0]) {
+                throw new RejectedExecutionException("busy");
+            }
+            workers.add(task);
+        }, 1);
+
+        try {
+            executor.execute(() -> {
+            });
+            Assert.fail("task accepted without a worker");
+        } catch (RejectedExecutionException expected) {
+            // nobody would run it
+        }
+
+        reject[0] = false;
+        AtomicInteger ran = new AtomicInteger();
+        executor.execute(ran::incrementAndGet);
+        Assert.assertEquals(1, workers.size());
+        workers.poll().run();
+        Assert.assertEquals(1, ran.get());
+    }
+}
@@ -0,0 +1,103 @@
+package com.fishqq.adcp;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+public class LogHistogramTest {
+    @Test
+    public void bucketsCoverEveryValueOnceInOrder() {
+        Assert.assertEquals(609, LogHistogram.BUCKET_COUNT);
+
+        for (int i = 0; i < LogHistogram.BUCKET_COUNT - 1; i++) {
+            long upper = LogHistogram.bucketUpperBound(i);
+            Assert.assertEquals("upper bound of " + i, i, LogHistogram.bucketIndex(upper));
+            Assert.assertEquals("value after bucket " + i, i + 1, LogHistogram.bucketIndex(upper + 1));
+        }
+    }
+
+    @Test
+    public void valuesFromTwoToTheFortyOneShareTheOverflowBucket() {
+        int overflow = LogHistogram.BUCKET_COUNT - 1;
+
+        Assert.assertEquals(overflow - 1, LogHistogram.bucketIndex((1L << 41) - 1));
+        Assert.assertEquals(overflow, LogHistogram.bucketIndex(1L << 41));
+        Assert.assertEquals(overflow, LogHistogram.bucketIndex(Long.MAX_VALUE));
+        Assert.assertEquals(Long.MAX_VALUE, LogHistogram.bucketUpperBound(overflow));
+
+        // the max stays exact above the last bucket
+        LogHistogram histogram = new LogHistogram();
+        histogram.record(1L << 50);
+        histogram.record(1);
+        Assert.assertEquals(1L << 50, histogram.snapshot().getPercentile(100));
+        Assert.assertEquals(1L << 50, histogram.snapshot().getMax());
+    }
+
+    @Test
+    public void negativeValuesCountAsZero() {
+        LogHistogram histogram = new LogHistogram();
+        histogram.record(-5);
+
+        HistogramSnapshot snapshot = histogram.snapshot();
+        Assert.assertEquals(1, snapshot.getCount());
+        Assert.assertEquals(0, snapshot.getSum());
+        Assert.assertEquals(0, snapshot.getPercentile(50));
+    }
+
+    @Test
+    public void percentilesAreNeverLowAndAtMostOneSixteenthHigh() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        for (int n = 0; n < 10_000; n++) {
+            long value = random.nextLong(1L << 41);
+            LogHistogram histogram = new LogHistogram();
+            histogram.record(value);
+            // a larger max, so the percentile is not capped at the exact value
+            histogram.record(Long.MAX_VALUE);
+
+            long p50 = histogram.snapshot().getPercentile(50);
+            Assert.assertTrue(value + " read back as " + p50, p50 >= value);
+            Assert.assertTrue(value + " read back as " + p50, p50 - value <= value / LogHistogram.SUB_BUCKET_COUNT);
+        }
+    }
+
+    @Test
+    public void percentileRanksOverManyValues() {
+        LogHistogram histogram = new LogHistogram();
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value);
+        }
+
+        HistogramSnapshot snapshot = histogram.snapshot();
+        Assert.assertEquals(1000, snapshot.getCount());
+        Assert.assertEquals(500, snapshot.getMean());
+        assertWithin(500, snapshot.getPercentile(50));
+        assertWithin(990, snapshot.getPercentile(99));
+        Assert.assertEquals(1000, snapshot.getPercentile(100));
+        Assert.assertEquals(1, snapshot.getPercentile(0));
+    }
+
+    @Test
+    public void addToAndClear() {
+        LogHistogram a = new LogHistogram();
+        LogHistogram b = new LogHistogram();
+        a.record(10);
+        a.record(1000);
+        b.record(5);
+
+        a.addTo(b);
+        a.clear();
+
+        Assert.assertEquals(0, a.snapshot().getCount());
+        HistogramSnapshot merged = b.snapshot();
+        Assert.assertEquals(3, merged.getCount());
+        Assert.assertEquals(1015, merged.getSum());
+        Assert.assertEquals(1000, merged.getMax());
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        Assert.assertTrue(expected + " read back as " + actual,
+                actual >= expected && actual - expected <= expected / LogHistogram.SUB_BUCKET_COUNT);
+    }
+}
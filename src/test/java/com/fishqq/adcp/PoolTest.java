@@ -0,0 +1,235 @@
+package com.fishqq.adcp;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class PoolTest {
+    private static final Runnable NO_DEMAND = () -> {
+    };
+
+    private static Pool<String> pool(int capacity, boolean fairHandoff) {
+        return pool(capacity, false, fairHandoff, 1);
+    }
+
+    private static Pool<String> pool(int capacity, boolean threadAffinity, boolean fairHandoff, int stripes) {
+        Pool<String> pool = new Pool<>(capacity, threadAffinity, fairHandoff, stripes, AdcpClock.SYSTEM);
+
+        for (int i = 0; i < capacity; i++) {
+            Pool<String>.Node node = pool.reserveEmptyNode();
+            node.item = "item" + i;
+            pool.pushToIdle(node);
+        }
+        return pool;
+    }
+
+    private static long deadline(long millis) {
+        return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    private static void awaitWaiters(Pool<?> pool, int waiters) throws InterruptedException {
+        long deadline = deadline(5000);
+        while (pool.waiterCount() < waiters) {
+            Assert.assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void fairHandOffServesParkedAndAsyncWaitersInArrivalOrder() throws Exception {
+        Pool<String> pool = pool(1, true);
+        Pool<String>.Node held = pool.tryTakeIdleNode(deadline(0), nanos -> {
+        }, NO_DEMAND);
+        List<String> order = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(3);
+
+        Thread first = new Thread(() -> borrowAndGiveBack(pool, "sync1", order, done));
+        first.start();
+        awaitWaiters(pool, 1);
+
+        pool.tryTakeIdleNodeAsync(node -> {
+            order.add("async");
+            pool.giveBack(node);
+            done.countDown();
+        }, NO_DEMAND);
+        awaitWaiters(pool, 2);
+
+        Thread second = new Thread(() -> borrowAndGiveBack(pool, "sync2", order, done));
+        second.start();
+        awaitWaiters(pool, 3);
+
+        pool.giveBack(held);
+
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(Arrays.asList("sync1", "async", "sync2"), order);
+    }
+
+    @Test
+    public void contendedTakesNeverShareANode() throws Exception {
+        for (boolean fairHandoff : new boolean[]{false, true}) {
+            Pool<String> pool = pool(4, fairHandoff);
+            Set<String> held = ConcurrentHashMap.newKeySet();
+            AtomicReference<Throwable> error = new AtomicReference<>();
+            Thread[] threads = new Thread[16];
+
+            for (int i = 0; i < threads.length; i++) {
+                threads[i] = new Thread(() -> {
+                    try {
+                        for (int n = 0; n < 5000; n++) {
+                            Pool<String>.Node node = pool.tryTakeIdleNode(deadline(5000), nanos -> {
+                            }, NO_DEMAND);
+                            Assert.assertNotNull(node);
+                            Assert.assertTrue("taken twice", held.add(node.item));
+                            held.remove(node.item);
+                            pool.giveBack(node);
+                        }
+                    } catch (Throwable e) {
+                        error.compareAndSet(null, e);
+                    }
+                });
+                threads[i].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            Assert.assertNull(error.get());
+            Assert.assertEquals(4, pool.idleCount());
+            Assert.assertEquals(0, pool.activeCount());
+            Assert.assertEquals(0, pool.waiterCount());
+        }
+    }
+
+    private static Pool<String>.Node take(Pool<String> pool) throws InterruptedException {
+        return pool.tryTakeIdleNode(deadline(0), nanos -> {
+        }, NO_DEMAND);
+    }
+
+    @Test
+    public void threadGetsBackTheNodeItGaveBackLast() throws Exception {
+        Pool<String> pool = pool(4, true, false, 1);
+        Pool<String>.Node first = take(pool);
+        Pool<String>.Node second = take(pool);
+
+        pool.giveBack(first);
+        pool.giveBack(second);
+
+        // a scan would find the first node
+        Assert.assertSame(second, take(pool));
+    }
+
+    @Test
+    public void hintedNodeCanBeTakenByAnotherThread() throws Exception {
+        Pool<String> pool = pool(2, true, false, 1);
+        Pool<String>.Node first = take(pool);
+        Pool<String>.Node second = take(pool);
+        pool.giveBack(second);
+
+        // the hint of this thread is the second node, the other thread only has the scan
+        AtomicReference<Pool<String>.Node> taken = new AtomicReference<>();
+        Thread other = new Thread(() -> {
+            try {
+                taken.set(take(pool));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        other.start();
+        other.join();
+
+        Assert.assertSame(second, taken.get());
+        Assert.assertNull("hinted node was taken over", take(pool));
+        pool.giveBack(first);
+        Assert.assertSame(first, take(pool));
+    }
+
+    @Test
+    public void stripedScanFindsIdleNodesInOtherSlices() throws Exception {
+        Pool<String> pool = pool(8, false, false, 4);
+        List<Pool<String>.Node> taken = new ArrayList<>();
+
+        // the first node taken is the start of this thread's slice
+        for (int i = 0; i < 8; i++) {
+            Pool<String>.Node node = take(pool);
+            Assert.assertNotNull("missed an idle node in another slice", node);
+            taken.add(node);
+        }
+        int home = taken.get(0).index;
+        Assert.assertNull(take(pool));
+
+        // only a node outside the home slice is idle
+        Pool<String>.Node elsewhere = null;
+        for (Pool<String>.Node node : taken) {
+            if (node.index < home || node.index >= home + 2) {
+                elsewhere = node;
+                break;
+            }
+        }
+        Assert.assertNotNull(elsewhere);
+        pool.giveBack(elsewhere);
+
+        Assert.assertSame(elsewhere, take(pool));
+    }
+
+    @Test
+    public void stripedFillUsesEverySlice() {
+        Pool<String> pool = new Pool<>(8, false, false, 4, AdcpClock.SYSTEM);
+        Set<Integer> slices = new HashSet<>();
+
+        for (int i = 0; i < 4; i++) {
+            slices.add(pool.reserveEmptyNode().index / 2);
+        }
+
+        Assert.assertEquals(4, slices.size());
+    }
+
+    @Test
+    public void busyNodeIsDestroyedOnceWhenDestroyAllRacesWithItsOwner() throws Exception {
+        for (int round = 0; round < 1000; round++) {
+            Pool<String> pool = pool(1, false);
+            Pool<String>.Node node = take(pool);
+            AtomicInteger destroyed = new AtomicInteger();
+            CountDownLatch start = new CountDownLatch(1);
+
+            Thread owner = new Thread(() -> {
+                try {
+                    start.await();
+                    pool.destroyActive(node, item -> destroyed.incrementAndGet());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            owner.start();
+            start.countDown();
+            pool.destroyAll(item -> destroyed.incrementAndGet());
+            owner.join();
+
+            Assert.assertEquals(1, destroyed.get());
+            Assert.assertEquals(Pool.EMPTY, node.state);
+        }
+    }
+
+    private static void borrowAndGiveBack(Pool<String> pool, String name, List<String> order, CountDownLatch done) {
+        try {
+            Pool<String>.Node node = pool.tryTakeIdleNode(deadline(5000), nanos -> {
+            }, NO_DEMAND);
+            Assert.assertNotNull(node);
+            order.add(name);
+            pool.giveBack(node);
+            done.countDown();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
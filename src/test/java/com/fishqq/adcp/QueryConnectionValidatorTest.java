@@ -0,0 +1,26 @@
+package com.fishqq.adcp;
+
+import org.junit.Test;
+
+import java.sql.Connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class QueryConnectionValidatorTest {
+    @Test
+    public void validationQueryRunsWithTheValidationTimeout() throws Exception {
+        StubDatabase db = new StubDatabase();
+        QueryConnectionValidator validator = new QueryConnectionValidator("select 1");
+
+        try (Connection connection = db.dataSource.getConnection()) {
+            assertTrue(validator.isValid(connection, 1500));
+            assertEquals(2, db.lastPrepared.getQueryTimeout());
+
+            // the statement is kept, every run gets the timeout it was asked for
+            assertTrue(validator.isValid(connection, 500));
+            assertEquals(1, db.prepared.get());
+            assertEquals(1, db.lastPrepared.getQueryTimeout());
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.fishqq.adcp;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class RateLimiterTest {
+    private final AtomicLong now = new AtomicLong(1000);
+    private final AdcpClock clock = now::get;
+
+    @Test
+    public void permitsAreSpacedAtTheRate() {
+        RateLimiter limiter = new RateLimiter(10, clock);
+        long interval = TimeUnit.MILLISECONDS.toNanos(100);
+
+        Assert.assertEquals(0, limiter.reserve());
+        Assert.assertEquals(interval, limiter.reserve());
+        Assert.assertEquals(2 * interval, limiter.reserve());
+
+        // time passing pays off the queued slots
+        now.addAndGet(3 * interval);
+        Assert.assertEquals(0, limiter.reserve());
+        Assert.assertEquals(interval, limiter.reserve());
+    }
+
+    @Test
+    public void idleTimeIsNotSavedUpForABurst() {
+        RateLimiter limiter = new RateLimiter(10, clock);
+        long interval = TimeUnit.MILLISECONDS.toNanos(100);
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        Assert.assertEquals(0, limiter.reserve());
+        Assert.assertEquals(interval, limiter.reserve());
+    }
+
+    @Test
+    public void zeroRateNeverWaits() {
+        RateLimiter limiter = new RateLimiter(0, clock);
+
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(0, limiter.reserve());
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.fishqq.adcp;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StatementCacheTest {
+    private final StubDatabase db = new StubDatabase();
+    private AdcpPool pool;
+
+    @After
+    public void tearDown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    private AdcpPool cachingPool() {
+        AdcpPoolConfig config = StubDatabase.config(1, 0);
+        config.setStatementCacheSize(8);
+        pool = new AdcpPool(config, db.dataSource, new AdcpMemoryMonitor(), null);
+        return pool;
+    }
+
+    @Test
+    public void cachedStatementComesBackWithItsPreparedLimits() throws Exception {
+        cachingPool();
+
+        // the stub throws on the large max rows methods like pgjdbc does
+        try (Connection connection = pool.borrow()) {
+            PreparedStatement statement = connection.prepareStatement("select 1");
+            statement.setMaxRows(10);
+            statement.setQueryTimeout(5);
+            statement.setFetchSize(100);
+            statement.setMaxRows(20);
+            statement.close();
+        }
+
+        try (Connection connection = pool.borrow();
+             PreparedStatement statement = connection.prepareStatement("select 1")) {
+            assertEquals(1, db.prepared.get());
+            assertEquals(0, statement.getMaxRows());
+            assertEquals(0, statement.getQueryTimeout());
+            assertEquals(0, statement.getFetchSize());
+        }
+    }
+
+    @Test
+    public void largeMaxRowsIsRestoredWhereTheDriverHasIt() throws Exception {
+        db.largeMaxRowsSupported = true;
+        cachingPool();
+
+        try (Connection connection = pool.borrow()) {
+            PreparedStatement statement = connection.prepareStatement("select 1");
+            statement.setMaxRows(10);
+            statement.setLargeMaxRows(Integer.MAX_VALUE + 1L);
+            statement.close();
+        }
+
+        try (Connection connection = pool.borrow();
+             PreparedStatement statement = connection.prepareStatement("select 1")) {
+            assertEquals(1, db.prepared.get());
+            assertEquals(0, statement.getLargeMaxRows());
+        }
+    }
+
+    private interface Change {
+        void apply(PreparedStatement statement) throws SQLException;
+    }
+
+    // changes the statement of the first borrow and prepares the same sql again on the next one
+    private PreparedStatement changeAndPrepareAgain(Change change) throws SQLException {
+        cachingPool();
+
+        try (Connection connection = pool.borrow()) {
+            PreparedStatement statement = connection.prepareStatement("select 1");
+            change.apply(statement);
+            statement.close();
+        }
+
+        try (Connection connection = pool.borrow()) {
+            return connection.prepareStatement("select 1");
+        }
+    }
+
+    @Test
+    public void maxFieldSizeIsRestored() throws Exception {
+        PreparedStatement statement = changeAndPrepareAgain(s -> s.setMaxFieldSize(64));
+        assertEquals(1, db.prepared.get());
+        assertEquals(0, statement.getMaxFieldSize());
+    }
+
+    @Test
+    public void fetchDirectionIsRestored() throws Exception {
+        PreparedStatement statement = changeAndPrepareAgain(s -> s.setFetchDirection(ResultSet.FETCH_REVERSE));
+        assertEquals(1, db.prepared.get());
+        assertEquals(ResultSet.FETCH_FORWARD, statement.getFetchDirection());
+    }
+
+    @Test
+    public void poolableIsRestored() throws Exception {
+        PreparedStatement statement = changeAndPrepareAgain(s -> s.setPoolable(false));
+        assertEquals(1, db.prepared.get());
+        assertTrue(statement.isPoolable());
+    }
+
+    @Test
+    public void statementWithEscapeProcessingChangedIsNotCached() throws Exception {
+        changeAndPrepareAgain(s -> s.setEscapeProcessing(false));
+        assertEquals(2, db.prepared.get());
+    }
+
+    @Test
+    public void statementWithCursorNameIsNotCached() throws Exception {
+        changeAndPrepareAgain(s -> s.setCursorName("c1"));
+        assertEquals(2, db.prepared.get());
+    }
+}
@@ -0,0 +1,192 @@
+package com.fishqq.adcp;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A proxy DataSource for pool tests, its connections answer the calls the pool makes and can be
+ * broken on demand.
+ */
+final class StubDatabase {
+    final AtomicInteger opened = new AtomicInteger(0);
+    final AtomicInteger closed = new AtomicInteger(0);
+    // the next connects that fail
+    final AtomicInteger failures = new AtomicInteger(0);
+    // connections whose isValid returns false
+    final Set<Connection> invalid = ConcurrentHashMap.newKeySet();
+    // connections whose setAutoCommit throws
+    final Set<Connection> broken = ConcurrentHashMap.newKeySet();
+    final Set<Connection> live = ConcurrentHashMap.newKeySet();
+    final AtomicInteger prepared = new AtomicInteger(0);
+    volatile PreparedStatement lastPrepared;
+    // like pgjdbc, whose statements throw on the large max rows methods
+    volatile boolean largeMaxRowsSupported = false;
+    // how long isValid takes, a database that answers slowly
+    volatile long validationMillis = 0;
+
+    final DataSource dataSource = (DataSource) Proxy.newProxyInstance(
+            StubDatabase.class.getClassLoader(),
+            new Class<?>[]{DataSource.class},
+            (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getConnection":
+                        return connect();
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == args[0];
+                    case "toString":
+                        return "StubDatabase";
+                    default:
+                        return null;
+                }
+            });
+
+    static AdcpPoolConfig config(int maxPoolSize, int minIdle) {
+        AdcpPoolConfig config = new AdcpPoolConfig();
+        config.setPoolName("test");
+        config.setMaxPoolSize(maxPoolSize);
+        config.setMinIdle(minIdle);
+        config.setBorrowTimeoutMs(1000);
+        config.setAliveCheckPeriodMs(0);
+        return config;
+    }
+
+    private Connection connect() throws SQLException {
+        if (failures.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+            throw new SQLException("connection refused");
+        }
+
+        opened.incrementAndGet();
+
+        Connection connection = (Connection) Proxy.newProxyInstance(
+                StubDatabase.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "isValid":
+                            if (validationMillis > 0) {
+                                Thread.sleep(validationMillis);
+                            }
+                            return !invalid.contains(proxy);
+                        case "close":
+                            if (live.remove(proxy)) {
+                                closed.incrementAndGet();
+                            }
+                            return null;
+                        case "isClosed":
+                            return !live.contains(proxy);
+                        case "setAutoCommit":
+                            if (broken.contains(proxy)) {
+                                throw new SQLException("connection reset");
+                            }
+                            return null;
+                        case "getAutoCommit":
+                            return true;
+                        case "isReadOnly":
+                            return false;
+                        case "getTransactionIsolation":
+                            return Connection.TRANSACTION_READ_COMMITTED;
+                        case "getNetworkTimeout":
+                            return 0;
+                        case "prepareStatement":
+                            return prepare();
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return "StubConnection@" + Integer.toHexString(System.identityHashCode(proxy));
+                        default:
+                            return null;
+                    }
+                });
+
+        live.add(connection);
+        return connection;
+    }
+
+    // a statement that remembers its settings, the rest of its calls do nothing
+    private PreparedStatement prepare() {
+        prepared.incrementAndGet();
+
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("MaxRows", 0L);
+        settings.put("QueryTimeout", 0);
+        settings.put("FetchSize", 0);
+        settings.put("MaxFieldSize", 0);
+        settings.put("FetchDirection", ResultSet.FETCH_FORWARD);
+        settings.put("Poolable", true);
+        settings.put("EscapeProcessing", true);
+        settings.put("CursorName", null);
+        boolean[] closed = {false};
+
+        return lastPrepared = (PreparedStatement) Proxy.newProxyInstance(
+                StubDatabase.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class},
+                (proxy, method, args) -> {
+                    String name = method.getName();
+                    switch (name) {
+                        case "setLargeMaxRows":
+                            if (!largeMaxRowsSupported) {
+                                throw new SQLFeatureNotSupportedException(name);
+                            }
+                            settings.put("MaxRows", args[0]);
+                            return null;
+                        case "getLargeMaxRows":
+                            if (!largeMaxRowsSupported) {
+                                throw new SQLFeatureNotSupportedException(name);
+                            }
+                            return settings.get("MaxRows");
+                        case "setMaxRows":
+                            settings.put("MaxRows", ((Number) args[0]).longValue());
+                            return null;
+                        case "getMaxRows":
+                            return ((Long) settings.get("MaxRows")).intValue();
+                        case "setQueryTimeout":
+                        case "setFetchSize":
+                        case "setMaxFieldSize":
+                        case "setFetchDirection":
+                        case "setPoolable":
+                        case "setEscapeProcessing":
+                        case "setCursorName":
+                            settings.put(name.substring(3), args[0]);
+                            return null;
+                        case "getQueryTimeout":
+                        case "getFetchSize":
+                        case "getMaxFieldSize":
+                        case "getFetchDirection":
+                            return settings.get(name.substring(3));
+                        case "isPoolable":
+                            return settings.get("Poolable");
+                        case "close":
+                            closed[0] = true;
+                            return null;
+                        case "isClosed":
+                            return closed[0];
+                        case "execute":
+                            return false;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    void invalidateAll() {
+        invalid.addAll(live);
+    }
+}
@@ -0,0 +1,66 @@
+package com.fishqq.adcp;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Borrows from virtual threads on jdk 21+, run by failsafe against the packaged jar so the pool
+ * uses the VirtualThreads variant from META-INF/versions/21.
+ */
+public class VirtualThreadBorrowIT {
+    private final StubDatabase database = new StubDatabase();
+    private AdcpPool pool;
+    private ExecutorService executor;
+
+    @After
+    public void tearDown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void manyVirtualThreadsShareASmallPool() throws Exception {
+        try {
+            executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            Assume.assumeNoException("virtual threads need jdk 21+", e);
+        }
+        Assert.assertTrue("VirtualThreads not loaded from the jdk 21 variant, "
+                        + VirtualThreads.class.getResource("VirtualThreads.class"),
+                String.valueOf(VirtualThreads.class.getResource("VirtualThreads.class")).contains("META-INF/versions/21/"));
+
+        pool = new AdcpPool(StubDatabase.config(4, 0), database.dataSource, new AdcpMemoryMonitor());
+        List<Future<Thread>> futures = new ArrayList<>();
+
+        for (int i = 0; i < 2000; i++) {
+            futures.add(executor.submit(() -> {
+                try (Connection connection = pool.borrow(10, TimeUnit.SECONDS)) {
+                    LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+                    // a virtual borrower is not kept reachable from the connection
+                    return ((ProxyConnection) connection).getUsingThread();
+                }
+            }));
+        }
+
+        for (Future<Thread> future : futures) {
+            Assert.assertNull(future.get(30, TimeUnit.SECONDS));
+        }
+        Assert.assertTrue(database.opened.get() <= 4);
+        Assert.assertEquals(0, pool.snapshot().getActiveCount());
+    }
+}